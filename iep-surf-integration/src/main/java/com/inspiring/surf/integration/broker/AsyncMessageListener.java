@@ -0,0 +1,68 @@
+package com.inspiring.surf.integration.broker;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.ChannelAwareMessageListener;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * Listener for containers in manual acknowledge mode that hands each message to
+ * {@link MessageHandler#handleMessageAsync} and acknowledges it from the completion callback, so the consumer
+ * thread is free to take the next delivery. In-flight messages per consumer are bounded by the prefetch count.
+ */
+public class AsyncMessageListener implements ChannelAwareMessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncMessageListener.class);
+
+    private final String queueName;
+    private final MessageHandler handler;
+    private final MessageConverter messageConverter;
+
+    public AsyncMessageListener(String queueName, MessageHandler handler, MessageConverter messageConverter) {
+        this.queueName = queueName;
+        this.handler = handler;
+        this.messageConverter = messageConverter;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onMessage(Message message, Channel channel) throws Exception {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        Map<String, Object> request;
+        try {
+            request = (Map<String, Object>) messageConverter.fromMessage(message);
+        } catch (MessageConversionException | ClassCastException e) {
+            log.error("Discarding unreadable message from queue: {}, cause: {}", queueName, e.getMessage());
+            channel.basicNack(deliveryTag, false, false);
+            return;
+        }
+
+        CompletableFuture<Void> result;
+        try {
+            result = handler.handleMessageAsync(request);
+        } catch (Throwable e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((v, e) -> acknowledge(channel, deliveryTag, e));
+    }
+
+    private void acknowledge(Channel channel, long deliveryTag, Throwable failure) {
+        try {
+            if (failure == null) {
+                channel.basicAck(deliveryTag, false);
+            } else {
+                log.error("Error processing message from queue: {}, requeueing: {}", queueName, failure.getMessage());
+                channel.basicNack(deliveryTag, false, true);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Error acknowledging message from queue: {}, cause: {}", queueName, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.inspiring.surf.integration.broker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.ChannelAwareMessageListener;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Listener for containers in manual acknowledge mode that hands messages to the handler in batches. Messages
+ * are buffered per channel and dispatched when the batch size is reached or the linger time expires, then the
+ * whole batch is acknowledged with a single multiple ack. When some messages of the batch failed, each message
+ * is acked or requeued on its own, so the processed ones are not delivered again. Acks of a channel are always
+ * sent in delivery order.
+ * <p>
+ * Full batches are handled on the consumer thread. The scheduler only detects expired batches and hands them
+ * to the dispatch executor, so a slow handler never holds up the linger checks of the other queues.
+ */
+public class BatchMessageListener implements ChannelAwareMessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchMessageListener.class);
+
+    private final String queueName;
+    private final MessageHandler handler;
+    private final MessageConverter messageConverter;
+    private final Executor dispatchExecutor;
+    private final IntSupplier batchSize;
+    private final LongSupplier lingerMillis;
+    private final Map<Channel, ChannelBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    public BatchMessageListener(String queueName, MessageHandler handler, MessageConverter messageConverter,
+                                ScheduledExecutorService executor, Executor dispatchExecutor, IntSupplier batchSize, LongSupplier lingerMillis) {
+        this.queueName = queueName;
+        this.handler = handler;
+        this.messageConverter = messageConverter;
+        this.dispatchExecutor = dispatchExecutor;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.executor = executor;
+        scheduleFlush();
+    }
+
+    /**
+     * Reschedules itself after each run with the current linger time, which is a dynamic property.
+     */
+    private void scheduleFlush() {
+        try {
+            executor.schedule(() -> {
+                try {
+                    flushExpired();
+                } finally {
+                    scheduleFlush();
+                }
+            }, Math.max(1, lingerMillis.getAsLong()), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Linger checks stopped for queue: {}", queueName);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, Channel channel) throws Exception {
+        ChannelBatch batch = batches.computeIfAbsent(channel, ChannelBatch::new);
+        PendingBatch ready = null;
+        synchronized (batch) {
+            batch.add(message);
+            if (batch.messages.size() >= batchSize.getAsInt()) {
+                ready = drain(batch);
+            }
+        }
+        if (ready != null) {
+            dispatch(ready);
+        }
+    }
+
+    private void flushExpired() {
+        long now = currentTimeMillis();
+        batches.values().forEach(batch -> {
+            if (!batch.channel.isOpen()) {
+                batches.remove(batch.channel);
+                return;
+            }
+            PendingBatch ready = null;
+            synchronized (batch) {
+                if (!batch.messages.isEmpty() && now - batch.firstReceived >= lingerMillis.getAsLong()) {
+                    ready = drain(batch);
+                }
+            }
+            if (ready != null) {
+                PendingBatch expired = ready;
+                try {
+                    dispatchExecutor.execute(() -> dispatch(expired));
+                } catch (RuntimeException e) {
+                    expired.failAll(e);
+                }
+            }
+        });
+    }
+
+    private PendingBatch drain(ChannelBatch batch) {
+        List<Message> messages = batch.messages;
+        batch.messages = new ArrayList<>();
+
+        PendingBatch pending = new PendingBatch(messages);
+        batch.acks = batch.acks.thenCombine(pending.result, (v, outcomes) -> {
+            acknowledge(batch.channel, pending.messages, outcomes);
+            return null;
+        });
+        return pending;
+    }
+
+    /**
+     * Converts the messages of the batch, discarding the unreadable ones, and hands the rest to the handler as
+     * one list.
+     */
+    private void dispatch(PendingBatch pending) {
+        int size = pending.messages.size();
+        log.debug("Dispatching batch of {} messages from queue: {}", size, queueName);
+        List<Map<String, Object>> requests = new ArrayList<>(size);
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            try {
+                indexes[requests.size()] = i;
+                requests.add(convert(pending.messages.get(i)));
+            } catch (MessageConversionException e) {
+                log.error("Discarding unreadable message from queue: {}, cause: {}", queueName, e.getMessage());
+                pending.outcomes[i] = Outcome.DISCARD;
+            } catch (RuntimeException e) {
+                log.error("Error reading message from queue: {}, requeueing: {}", queueName, e.getMessage());
+                pending.outcomes[i] = Outcome.REQUEUE;
+            }
+        }
+        if (requests.isEmpty()) {
+            pending.result.complete(pending.outcomes);
+            return;
+        }
+
+        List<CompletableFuture<Void>> handled;
+        try {
+            handled = handler.handleMessages(requests);
+            if (handled.size() != requests.size()) {
+                throw new IllegalStateException("Handler returned " + handled.size() + " results for " + requests.size() + " messages");
+            }
+        } catch (Throwable e) {
+            log.error("Error processing batch from queue: {}, requeueing: {}", queueName, e.getMessage());
+            for (int k = 0; k < requests.size(); k++) {
+                pending.outcomes[indexes[k]] = Outcome.REQUEUE;
+            }
+            pending.result.complete(pending.outcomes);
+            return;
+        }
+
+        CompletableFuture<?>[] results = new CompletableFuture[handled.size()];
+        for (int k = 0; k < results.length; k++) {
+            int index = indexes[k];
+            results[k] = handled.get(k).handle((v, e) -> {
+                if (e != null) {
+                    log.error("Error processing message from queue: {}, requeueing: {}", queueName, e.getMessage());
+                    pending.outcomes[index] = Outcome.REQUEUE;
+                }
+                return null;
+            });
+        }
+        CompletableFuture.allOf(results).whenComplete((v, e) -> pending.result.complete(pending.outcomes));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> convert(Message message) {
+        try {
+            return (Map<String, Object>) messageConverter.fromMessage(message);
+        } catch (ClassCastException e) {
+            throw new MessageConversionException("Unexpected message body", e);
+        }
+    }
+
+    private void acknowledge(Channel channel, List<Message> messages, Outcome[] outcomes) {
+        try {
+            boolean allAcked = true;
+            for (Outcome outcome : outcomes) {
+                allAcked &= outcome == Outcome.ACK;
+            }
+            if (allAcked) {
+                channel.basicAck(messages.get(messages.size() - 1).getMessageProperties().getDeliveryTag(), true);
+                return;
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                long deliveryTag = messages.get(i).getMessageProperties().getDeliveryTag();
+                if (outcomes[i] == Outcome.ACK) {
+                    channel.basicAck(deliveryTag, false);
+                } else {
+                    channel.basicNack(deliveryTag, false, outcomes[i] == Outcome.REQUEUE);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Error acknowledging batch from queue: {}, cause: {}", queueName, e.getMessage());
+        }
+    }
+
+    private enum Outcome {
+        ACK, REQUEUE, DISCARD
+    }
+
+    private static class PendingBatch {
+
+        private final List<Message> messages;
+        private final Outcome[] outcomes;
+        private final CompletableFuture<Outcome[]> result = new CompletableFuture<>();
+
+        private PendingBatch(List<Message> messages) {
+            this.messages = messages;
+            this.outcomes = new Outcome[messages.size()];
+            Arrays.fill(outcomes, Outcome.ACK);
+        }
+
+        private void failAll(Throwable e) {
+            log.error("Error dispatching batch of {} messages, requeueing: {}", messages.size(), e.getMessage());
+            Arrays.fill(outcomes, Outcome.REQUEUE);
+            result.complete(outcomes);
+        }
+    }
+
+    private static class ChannelBatch {
+
+        private final Channel channel;
+        private List<Message> messages = new ArrayList<>();
+        private long firstReceived;
+        private CompletableFuture<Void> acks = CompletableFuture.completedFuture(null);
+
+        private ChannelBatch(Channel channel) {
+            this.channel = channel;
+        }
+
+        private void add(Message message) {
+            if (messages.isEmpty()) {
+                firstReceived = currentTimeMillis();
+            }
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.inspiring.surf.integration.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects messages of a queue and publishes them in batches, flushing when the batch size is reached or
+ * when the linger time of the first buffered message expires. Each caller gets a future completed when the
+ * batch holding its message is durable in the broker. When the broker falls behind, at most the max buffered
+ * messages wait for a batch, further publishes are rejected with {@link BrokerBackpressureException}.
+ */
+public class BatchPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchPublisher.class);
+
+    private final String queueName;
+    private final ScheduledExecutorService executor;
+    private final Function<List<Map<String, Object>>, CompletableFuture<Void>> flusher;
+    private final IntSupplier batchSize;
+    private final LongSupplier lingerMillis;
+    private final IntSupplier maxBuffered;
+
+    private final ConcurrentLinkedQueue<PendingMessage> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private final AtomicBoolean lingerScheduled = new AtomicBoolean(false);
+
+    public BatchPublisher(String queueName, ScheduledExecutorService executor,
+                          Function<List<Map<String, Object>>, CompletableFuture<Void>> flusher,
+                          IntSupplier batchSize, LongSupplier lingerMillis, IntSupplier maxBuffered) {
+        this.queueName = queueName;
+        this.executor = executor;
+        this.flusher = flusher;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.maxBuffered = maxBuffered;
+    }
+
+    public CompletableFuture<Void> publish(Map<String, Object> message) {
+        int buffered = size.incrementAndGet();
+        if (buffered > Math.max(1, maxBuffered.getAsInt())) {
+            size.decrementAndGet();
+            throw new BrokerBackpressureException("Publish batch buffer full for queue: " + queueName, 1);
+        }
+        PendingMessage pending = new PendingMessage(message);
+        buffer.offer(pending);
+        if (buffered >= batchSize.getAsInt()) {
+            executor.execute(this::flush);
+        } else {
+            scheduleLinger();
+        }
+        return pending.future;
+    }
+
+    private void scheduleLinger() {
+        if (lingerScheduled.compareAndSet(false, true)) {
+            executor.schedule(() -> {
+                lingerScheduled.set(false);
+                flush();
+            }, lingerMillis.getAsLong(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int max = Math.max(1, batchSize.getAsInt());
+            while (size.get() > 0) {
+                List<PendingMessage> batch = new ArrayList<>(Math.min(max, size.get()));
+                PendingMessage pending;
+                while (batch.size() < max && (pending = buffer.poll()) != null) {
+                    batch.add(pending);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                size.addAndGet(-batch.size());
+                publishBatch(batch);
+            }
+        } finally {
+            flushing.set(false);
+        }
+
+        if (size.get() > 0) {
+            scheduleLinger();
+        }
+    }
+
+    private void publishBatch(List<PendingMessage> batch) {
+        List<Map<String, Object>> messages = new ArrayList<>(batch.size());
+        for (PendingMessage pending : batch) {
+            messages.add(pending.message);
+        }
+
+        log.debug("Publishing batch of {} messages to queue: {}", batch.size(), queueName);
+
+        CompletableFuture<Void> result;
+        try {
+            result = flusher.apply(messages);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenComplete((v, e) -> {
+            if (e != null) {
+                log.warn("Error publishing batch of {} messages to queue: {}, cause: {}", batch.size(), queueName, e.getMessage());
+                batch.forEach(pending -> pending.future.completeExceptionally(e));
+            } else {
+                batch.forEach(pending -> pending.future.complete(null));
+            }
+        });
+    }
+
+    private static class PendingMessage {
+
+        private final Map<String, Object> message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(Map<String, Object> message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.inspiring.surf.integration.broker;
+
+public class BrokerBackpressureException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public BrokerBackpressureException(String msg, long retryAfterSeconds) {
+        super(msg);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
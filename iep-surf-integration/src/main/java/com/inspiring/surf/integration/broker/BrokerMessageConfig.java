@@ -2,39 +2,70 @@ package com.inspiring.surf.integration.broker;
 
 import com.inspiring.surf.integration.exceptions.SendToAuditException;
 import com.inspiring.surf.integration.listeners.PropertyListener;
+import com.inspiring.surf.integration.util.AuditWriter;
+import com.inspiring.surf.integration.util.CompactMapCodec;
+import com.inspiring.surf.integration.util.ConsumerTaskExecutor;
 import com.inspiring.surf.integration.util.DynamicProperties;
-import com.rabbitmq.http.client.Client;
-import java.net.MalformedURLException;
-import java.net.URISyntaxException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.SerializationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.AmqpAdmin;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.adapter.MessageListenerAdapter;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.task.AsyncTaskExecutor;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.context.annotation.Primary;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.apache.commons.lang3.StringUtils.removeEnd;
 import static org.apache.commons.lang3.StringUtils.removeStart;
+import static org.apache.commons.lang3.StringUtils.split;
 
 @Configuration
 @EnableScheduling
@@ -45,104 +76,475 @@ public class BrokerMessageConfig implements PropertyListener {
     private static final String QUEUE_RETRY_SUFFIX = ".retry";
     private static final String QUEUE_ERROR_SUFFIX = ".error";
     private static final String MESSAGE_RETRIES_COUNT = "x-msg-retry-count";
+    private static final String QUEUE_PUBLISH_MODE_SUFFIX = ".publish.mode";
+    private static final String QUEUE_PREFETCH_SUFFIX = ".prefetch";
+    private static final String QUEUE_BATCH_SIZE_SUFFIX = ".batch.size";
+    private static final String QUEUE_BATCH_LINGER_SUFFIX = ".batch.linger.ms";
+    private static final String QUEUE_LOCAL_WORKERS_SUFFIX = ".local.workers";
+    private static final String QUEUE_LOCAL_CAPACITY_SUFFIX = ".local.capacity";
+    private static final String LOCAL_DISPATCH_ASYNC = "async";
+    private static final String LOCAL_DISPATCH_FULL_TIMEOUT = "local.dispatch.full.timeout.ms";
+    private static final String LOCAL_DISPATCH_STOP_TIMEOUT = "local.dispatch.stop.timeout.ms";
+    private static final String QUEUE_PUBLISH_BATCH_SUFFIX = ".publish.batch";
+    private static final String QUEUE_PUBLISH_BATCH_SIZE_SUFFIX = ".publish.batch.size";
+    private static final String QUEUE_PUBLISH_BATCH_LINGER_SUFFIX = ".publish.batch.linger.ms";
+    private static final String QUEUE_PUBLISH_BATCH_BUFFER_SUFFIX = ".publish.batch.buffer";
+    private static final String PUBLISH_MODE_CONFIRM = "confirm";
+    private static final MessagePostProcessor NO_POST_PROCESSOR = message -> message;
 
     private @Value("${rabbit.hosts:localhost:5672}") String amqpHosts;
-    private @Value("${rabbit.client.enabled:true}") boolean rabbitClientEnabled;
-    private @Value("${rabbit.client.url:localhost:15672}") String clientUrl;
     private @Value("${rabbit.user:guest}") String amqpUser;
     private @Value("${rabbit.pass:guest}") String amqpPass;
     private @Value("${rabbit.vhost:/}") String amqpVhost;
+    private @Value("${rabbit.consumer.executor:pooled}") String consumerExecutorMode;
+    private @Value("${local.dispatch.mode:async}") String localDispatchMode;
+    private @Value("${spool.enabled:false}") boolean spoolEnabled;
+    private @Value("${spool.dir:${app.home:.}/var/spool}") String spoolDir;
+    private @Value("${spool.segment.size.mb:64}") int spoolSegmentSizeMb;
+    private @Value("${spool.fsync.interval.ms:10}") long spoolFsyncInterval;
+    private @Value("${rabbit.publish.async.threads:8}") int publishAsyncThreads;
+    private @Value("${rabbit.publish.async.queue:1024}") int publishAsyncQueue;
     private static final String RABBIT_ENABLE = "rabbit.enabled";
     private static final String RABBIT_RETRY_DELAY = "rabbit.retry.delay";
     private static final String RABBIT_RETRY_MAX = "rabbit.retry.max";
-    private Client rabbitClient;
+    private static final String RABBIT_RETRY_TIERS = "rabbit.retry.tiers";
+    private static final String RABBIT_RETRY_JITTER = "rabbit.retry.jitter";
+    private static final String RABBIT_RETRY_JITTER_QUEUES = "rabbit.retry.jitter.queues";
+    private static final String RABBIT_MESSAGE_CODEC = "rabbit.message.codec";
+    private static final String RABBIT_MESSAGE_COMPRESS_THRESHOLD = "rabbit.message.compress.threshold";
+    private static final String SPOOL_BROKER_RETRY_INTERVAL = "spool.broker.retry.interval";
+    private static final String SPOOL_DRAIN_BATCH = "spool.drain.batch";
+    private static final byte SPOOL_FORMAT_COMPACT = 'C';
+    private static final byte SPOOL_FORMAT_JAVA = 'J';
+    private static final String RABBIT_CONFIRMS_WINDOW = "rabbit.publisher.confirms.window";
+    private static final String RABBIT_CONFIRMS_TIMEOUT = "rabbit.publisher.confirms.timeout";
+    private MessageSpool spool;
+    private volatile long brokerDownUntil;
 
     private final AtomicInteger counter = new AtomicInteger(0);
 
     private @Autowired ConfigurableApplicationContext ctx;
     private @Autowired DynamicProperties dynamicProperties;
     private @Autowired(required = false) AmqpAdmin amqpAdmin;
+    private @Autowired QueueStatsCollector queueStats;
+    private @Autowired AuditWriter audit;
     private Map<String, RabbitTemplate> templates = new HashMap<>();
+    private Map<String, RabbitTemplate> confirmTemplates = new HashMap<>();
+    private Map<String, PublisherConfirms> publisherConfirms = new HashMap<>();
+    private Map<String, BatchPublisher> batchPublishers = new HashMap<>();
+    private Map<String, List<List<Long>>> retryTiers = new HashMap<>();
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+    private final ScheduledExecutorService publishExecutor = new ScheduledThreadPoolExecutor(2, new CustomizableThreadFactory("broker-publish-batch-"));
+    private final ScheduledExecutorService consumeExecutor = new ScheduledThreadPoolExecutor(2, new CustomizableThreadFactory("broker-consume-batch-"));
+    private final ThreadPoolExecutor lingerExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new CustomizableThreadFactory("broker-consume-linger-"));
+    private ThreadPoolExecutor publishAsyncExecutor;
     private Map<String, SimpleMessageListenerContainer> containers = new HashMap<>();
     private Map<String, MessageHandler> handlers = new HashMap<>();
+    private Map<String, LocalDispatcher> dispatchers = new HashMap<>();
 
     @PostConstruct
-    public void init() throws MalformedURLException, URISyntaxException {
+    public void init() throws IOException {
         dynamicProperties.registerListener("queue.*", this);
         dynamicProperties.registerListener(RABBIT_ENABLE, this);
+        publishAsyncExecutor = new ThreadPoolExecutor(publishAsyncThreads, publishAsyncThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(publishAsyncQueue), new CustomizableThreadFactory("broker-publish-async-"));
+        publishAsyncExecutor.allowCoreThreadTimeOut(true);
+        lingerExecutor.allowCoreThreadTimeOut(true);
+
+        if (spoolEnabled) {
+            spool = new MessageSpool(new File(spoolDir), spoolSegmentSizeMb * 1024 * 1024, spoolFsyncInterval);
+            spool.scheduleDrain(this::drainSpool, 5000, 1000);
+        }
+    }
 
-        if (rabbitClientEnabled) {
-            rabbitClient = new Client(clientUrl, amqpUser, amqpPass);
+    @PreDestroy
+    public void destroy() {
+        publishExecutor.shutdown();
+        publishAsyncExecutor.shutdown();
+        consumeExecutor.shutdown();
+        lingerExecutor.shutdown();
+        if (spool != null) {
+            spool.close();
         }
     }
 
     public void start() {
         if (isRabbitEnabled()) {
-            containers.entrySet().forEach(entry -> {
-                if (!entry.getValue().isRunning()) {
-                    log.info("Starting consumer for queue: {}", entry.getKey());
-                    entry.getValue().start();
-                }
-            });
+            startContainers();
+        } else if (isLocalDispatchAsync()) {
+            startDispatchers();
         }
     }
 
     public void stop() {
-        if (isRabbitEnabled()) {
-            containers.entrySet().forEach(entry -> {
-                if (entry.getValue().isRunning()) {
-                    log.info("Stopping consumer for queue: {}", entry.getKey());
-                    entry.getValue().stop();
+        stopContainers();
+        stopDispatchers(false);
+    }
+
+    private void startContainers() {
+        containers.entrySet().forEach(entry -> {
+            if (!entry.getValue().isRunning()) {
+                log.info("Starting consumer for queue: {}", entry.getKey());
+                entry.getValue().start();
+            }
+        });
+    }
+
+    private void stopContainers() {
+        containers.entrySet().forEach(entry -> {
+            if (entry.getValue().isRunning()) {
+                log.info("Stopping consumer for queue: {}", entry.getKey());
+                entry.getValue().stop();
+            }
+        });
+    }
+
+    private void startDispatchers() {
+        dispatchers.entrySet().forEach(entry -> {
+            if (!entry.getValue().isRunning()) {
+                log.info("Starting local dispatch for queue: {}", entry.getKey());
+                entry.getValue().start(getLocalWorkers(entry.getKey()));
+            }
+        });
+    }
+
+    /**
+     * Stops the local workers. Messages still queued are sent to the broker when it was just enabled, otherwise
+     * they are written to the reprocess log.
+     */
+    private void stopDispatchers(boolean toBroker) {
+        dispatchers.entrySet().forEach(entry -> {
+            String queueName = entry.getKey();
+            List<Map<String, Object>> pending;
+            if (entry.getValue().isRunning()) {
+                log.info("Stopping local dispatch for queue: {}", queueName);
+                pending = entry.getValue().stop(getLocalStopTimeout());
+            } else {
+                pending = entry.getValue().drain();
+            }
+            if (!pending.isEmpty()) {
+                log.info("Local dispatch for queue: {} stopped with {} messages queued", queueName, pending.size());
+                for (Map<String, Object> message : pending) {
+                    if (toBroker) {
+                        sendMessageAsync(queueName, message, true).whenComplete((v, e) -> {
+                            if (e != null) {
+                                audit.reprocess(queueName, message);
+                            }
+                        });
+                    } else {
+                        audit.reprocess(queueName, message);
+                    }
                 }
-            });
-        }
+            }
+        });
     }
 
     public void registerQueue(String queueName, MessageHandler handler) {
         log.debug("Registering queue: {}", queueName);
         listenerContainer(rabbitTemplate(queueName), handler);
+        if (isLocalDispatchAsync()) {
+            dispatchers.put(queueName, new LocalDispatcher(queueName, handler, getLocalCapacity(queueName)));
+        }
         log.info("Queue {} registered", queueName);
     }
 
     public void sendMessageToRetry(String queue, Map<String, Object> body) throws SendToAuditException {
 
-        if (isRabbitEnabled()) {
-            if (body.containsKey(MESSAGE_RETRIES_COUNT)) {
-                int count = (Integer) body.get(MESSAGE_RETRIES_COUNT);
-                if (count >= getRetryMax()) {
+        if (isRabbitEnabled() && !isBrokerDown()) {
+            Map<String, Object> original = spool != null ? new HashMap<>(body) : body;
+            try {
+                retry(queue, body);
+            } catch (AmqpException e) {
+                if (spool == null) {
+                    throw e;
+                }
+                markBrokerDown(e);
+                spoolRetry(queue, original);
+            }
+        } else if (spool != null) {
+            spoolRetry(queue, body);
+        } else {
+            throw new SendToAuditException("Can not send message to retry, broker is disable");
+        }
+    }
 
-                    log.error("Message reach retry limit, sending to error queue", body);
+    private void retry(String queue, Map<String, Object> body) {
+        if (body.containsKey(MESSAGE_RETRIES_COUNT)) {
+            int count = (Integer) body.get(MESSAGE_RETRIES_COUNT);
+            if (count >= getRetryMax()) {
 
-                    getTemplate(queue + QUEUE_ERROR_SUFFIX).convertAndSend(body, message -> {
-                        body.remove(MESSAGE_RETRIES_COUNT);
-                        return message;
-                    });
-                    return;
-                }
-                body.put(MESSAGE_RETRIES_COUNT, ++count);
-            } else {
-                body.put(MESSAGE_RETRIES_COUNT, 1);
+                log.error("Message reach retry limit, sending to error queue", body);
+
+                publish(queue, queue + QUEUE_ERROR_SUFFIX, body, message -> {
+                    body.remove(MESSAGE_RETRIES_COUNT);
+                    return message;
+                });
+                return;
             }
+            body.put(MESSAGE_RETRIES_COUNT, ++count);
+        } else {
+            body.put(MESSAGE_RETRIES_COUNT, 1);
+        }
 
+        List<List<Long>> tiers = retryTiers.get(queue);
+        if (tiers == null || tiers.isEmpty()) {
             String retryQueue = queue + QUEUE_RETRY_SUFFIX;
             log.debug("Queueing message: '{}' in queue: '{}'", body, retryQueue);
 
-            getTemplate(retryQueue).convertAndSend(body, message -> {
+            publish(queue, retryQueue, body, message -> {
                 message.getMessageProperties().setExpiration(String.valueOf(getRetryDelay()));
                 return message;
             });
-        } else {
-            throw new SendToAuditException("Can not send message to retry, broker is disable");
+            return;
         }
+
+        int retries = (Integer) body.get(MESSAGE_RETRIES_COUNT);
+        List<Long> delays = tiers.get(Math.min(retries, tiers.size()) - 1);
+        String retryQueue = retryTierQueueName(queue, delays.get(ThreadLocalRandom.current().nextInt(delays.size())));
+        log.debug("Queueing message: '{}' in queue: '{}'", body, retryQueue);
+
+        publish(queue, retryQueue, body, message -> message);
     }
 
     public void sendMessage(String queue, Map<String, Object> message) {
+        if (isRabbitEnabled()) {
+            await(queue, sendMessageAsync(queue, message, true));
+        } else if (isLocalDispatchAsync()) {
+            log.debug("Queueing message: '{}' in local queue: '{}'", message, queue);
+            getDispatcher(queue).dispatch(message, getLocalFullTimeout());
+        } else {
+            log.debug("Sending message direct to handler: {}", message);
+            getHandler(queue).handleMessage(message);
+        }
+    }
+
+    /**
+     * Does not wait on the broker: a transacted publish is handed off to the async publish pool and a publish with
+     * confirms does not wait for a window slot. A full pool or window completes the future with a
+     * {@link BrokerBackpressureException}.
+     */
+    public CompletableFuture<Void> sendMessageAsync(String queue, Map<String, Object> message) {
+        return sendMessageAsync(queue, message, false);
+    }
+
+    /**
+     * When blocking, a transacted publish runs on the calling thread and a publish with confirms waits for a
+     * window slot, as {@link #sendMessage(String, Map)} does, only the confirmation is not awaited.
+     */
+    public CompletableFuture<Void> sendMessageAsync(String queue, Map<String, Object> message, boolean blocking) {
         if (isRabbitEnabled()) {
             log.debug("Queueing message: '{}' in queue: '{}'", message, queue);
-            getTemplate(queue).convertAndSend(message);
+            if (isBrokerDown()) {
+                return spool(queue, message);
+            }
+
+            CompletableFuture<Void> published;
+            try {
+                if (isPublishBatch(queue)) {
+                    published = getBatchPublisher(queue).publish(message);
+                } else if (blocking) {
+                    published = publishAsync(queue, queue, message, NO_POST_PROCESSOR);
+                } else {
+                    published = publishNonBlocking(queue, message);
+                }
+            } catch (BrokerBackpressureException e) {
+                CompletableFuture<Void> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                return rejected;
+            } catch (AmqpException e) {
+                published = new CompletableFuture<>();
+                published.completeExceptionally(e);
+            }
+
+            if (spool == null) {
+                return published;
+            }
+            CompletableFuture<Void> result = published.handle((v, e) -> {
+                if (e == null) {
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                markBrokerDown(e);
+                return spool(queue, message);
+            }).thenCompose(spooled -> spooled);
+            result.whenComplete((v, e) -> {
+                if (result.isCancelled()) {
+                    published.cancel(false);
+                }
+            });
+            return result;
+        } else if (isLocalDispatchAsync()) {
+            log.debug("Queueing message: '{}' in local queue: '{}'", message, queue);
+            try {
+                getDispatcher(queue).dispatch(message, getLocalFullTimeout());
+                return CompletableFuture.completedFuture(null);
+            } catch (BrokerBackpressureException e) {
+                CompletableFuture<Void> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                return rejected;
+            }
         } else {
             log.debug("Sending message direct to handler: {}", message);
             getHandler(queue).handleMessage(message);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private CompletableFuture<Void> spool(String target, Map<String, Object> message) {
+        try {
+            log.debug("Spooling message: '{}' for queue: '{}'", message, target);
+            return spool.append(target, encodeSpoolRecord(message));
+        } catch (IOException e) {
+            log.error("Error spooling message for queue: {}, cause: {}", target, e.getMessage());
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new AmqpException("Broker unavailable and spool write failed", e));
+            return failed;
+        }
+    }
+
+    private void spoolRetry(String queue, Map<String, Object> body) throws SendToAuditException {
+        try {
+            await(queue, spool(queue + QUEUE_RETRY_SUFFIX, body));
+        } catch (AmqpException e) {
+            throw new SendToAuditException("Can not send message to retry, broker unavailable and spool failed");
+        }
+    }
+
+    private void drainSpool() {
+        if (spool == null || !isRabbitEnabled() || isBrokerDown() || spool.isEmpty()) {
+            return;
+        }
+        try {
+            int drained = spool.drain(getSpoolDrainBatch(), this::republish);
+            if (drained > 0) {
+                report.info("Spool: {} messages republished, Discarded: {} records, {} bytes", drained,
+                        spool.getDiscardedRecords(), spool.getDiscardedBytes());
+            }
+        } catch (IOException e) {
+            log.error("Error draining spool: {}", e.getMessage());
+        }
+    }
+
+    private boolean republish(String target, byte[] record) {
+        Map<String, Object> message;
+        try {
+            message = decodeSpoolRecord(record);
+        } catch (RuntimeException e) {
+            log.error("Discarding unreadable spool record for queue: {}, cause: {}", target, e.getMessage());
+            return true;
+        }
+
+        try {
+            if (target.endsWith(QUEUE_RETRY_SUFFIX)) {
+                retry(removeEnd(target, QUEUE_RETRY_SUFFIX), message);
+            } else {
+                publish(target, target, message, NO_POST_PROCESSOR);
+            }
+            return true;
+        } catch (AmqpException e) {
+            markBrokerDown(e);
+            return false;
+        } catch (RuntimeException e) {
+            log.error("Discarding spool record for queue: {}, message: {}, cause: {}", target, message, e.getMessage());
+            return true;
+        }
+    }
+
+    private byte[] encodeSpoolRecord(Map<String, Object> message) {
+        byte[] body = CompactMapCodec.isSupported(message) ? CompactMapCodec.encode(message) : SerializationUtils.serialize(new HashMap<>(message));
+        byte[] record = new byte[body.length + 1];
+        record[0] = CompactMapCodec.isSupported(message) ? SPOOL_FORMAT_COMPACT : SPOOL_FORMAT_JAVA;
+        System.arraycopy(body, 0, record, 1, body.length);
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> decodeSpoolRecord(byte[] record) {
+        byte[] body = Arrays.copyOfRange(record, 1, record.length);
+        if (record[0] == SPOOL_FORMAT_COMPACT) {
+            return CompactMapCodec.decode(body);
+        }
+        return (Map<String, Object>) SerializationUtils.deserialize(body);
+    }
+
+    private void markBrokerDown(Throwable cause) {
+        if (spool != null && !isBrokerDown()) {
+            log.warn("Broker unavailable, spooling messages for {} ms, cause: {}", getSpoolBrokerRetryInterval(), cause.getMessage());
+            brokerDownUntil = currentTimeMillis() + getSpoolBrokerRetryInterval();
+        }
+    }
+
+    private boolean isBrokerDown() {
+        return spool != null && currentTimeMillis() < brokerDownUntil;
+    }
+
+    private void publish(String queue, String targetQueue, Map<String, Object> body, MessagePostProcessor postProcessor) {
+        await(targetQueue, publishAsync(queue, targetQueue, body, postProcessor));
+    }
+
+    private CompletableFuture<Void> publishAsync(String queue, String targetQueue, Map<String, Object> body, MessagePostProcessor postProcessor) {
+        if (isPublisherConfirms(queue)) {
+            RabbitTemplate confirmTemplate = getConfirmTemplate(targetQueue);
+            return getPublisherConfirms(targetQueue).publish(getConfirmsTimeout(),
+                    correlationData -> confirmTemplate.convertAndSend(body, postProcessor, correlationData));
+        }
+        getTemplate(targetQueue).convertAndSend(body, postProcessor);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> publishNonBlocking(String queue, Map<String, Object> body) {
+        if (isPublisherConfirms(queue)) {
+            RabbitTemplate confirmTemplate = getConfirmTemplate(queue);
+            return getPublisherConfirms(queue).publish(0, correlationData -> confirmTemplate.convertAndSend(body, NO_POST_PROCESSOR, correlationData));
+        }
+        try {
+            return CompletableFuture.runAsync(() -> getTemplate(queue).convertAndSend(body, NO_POST_PROCESSOR), publishAsyncExecutor);
+        } catch (RejectedExecutionException e) {
+            throw new BrokerBackpressureException("Async publish pool full for queue: " + queue, 1);
+        }
+    }
+
+    private CompletableFuture<Void> publishBatch(String queue, List<Map<String, Object>> messages) {
+        if (isPublisherConfirms(queue)) {
+            List<CompletableFuture<Void>> confirmations = new ArrayList<>(messages.size());
+            for (Map<String, Object> message : messages) {
+                confirmations.add(publishAsync(queue, queue, message, NO_POST_PROCESSOR));
+            }
+            return CompletableFuture.allOf(confirmations.toArray(new CompletableFuture[confirmations.size()]));
+        }
+
+        // the template is transacted, it commits the whole batch once the callback returns
+        RabbitTemplate template = getTemplate(queue);
+        template.execute(channel -> {
+            for (Map<String, Object> message : messages) {
+                Message amqpMessage = template.getMessageConverter().toMessage(message, new MessageProperties());
+                channel.basicPublish(template.getExchange(), template.getRoutingKey(), false,
+                        messagePropertiesConverter.fromMessageProperties(amqpMessage.getMessageProperties(), UTF_8.name()),
+                        amqpMessage.getBody());
+            }
+            return null;
+        });
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * On timeout the publish is cancelled, releasing its confirm window slot. The message may still be confirmed
+     * by the broker, so the caller retrying it gives at least once delivery.
+     */
+    private void await(String queue, CompletableFuture<Void> future) {
+        try {
+            future.get(getConfirmsTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new AmqpException("Timeout waiting publish confirmation for queue: " + queue, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmqpException("Interrupted waiting publish confirmation for queue: " + queue, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AmqpException) {
+                throw (AmqpException) e.getCause();
+            }
+            throw new AmqpException(e.getCause());
         }
     }
 
@@ -158,11 +560,16 @@ public class BrokerMessageConfig implements PropertyListener {
         register(workQueue.getName(), workBinding);
 
         RabbitTemplate workTemplate = new RabbitTemplate(connectionFactory());
+        workTemplate.setMessageConverter(messageConverter());
         workTemplate.setExchange(workExchange().getName());
         workTemplate.setRoutingKey(workQueue.getName());
         workTemplate.setChannelTransacted(true);
         register(workQueue.getName(), workTemplate);
         templates.put(workQueue.getName(), workTemplate);
+        confirmTemplate(workQueue.getName(), workExchange().getName());
+        batchPublishers.put(workQueue.getName(), new BatchPublisher(workQueue.getName(), publishExecutor,
+                messages -> publishBatch(queueName, messages),
+                () -> getPublishBatchSize(queueName), () -> getPublishBatchLinger(queueName), () -> getPublishBatchBuffer(queueName)));
 
         //Retry Queue
         Queue retryQueue = retryQueue(queueName);
@@ -174,11 +581,24 @@ public class BrokerMessageConfig implements PropertyListener {
         register(retryQueue.getName(), retryBinding);
 
         RabbitTemplate retryTemplate = new RabbitTemplate(connectionFactory());
+        retryTemplate.setMessageConverter(messageConverter());
         retryTemplate.setExchange(retryExchange().getName());
         retryTemplate.setRoutingKey(retryQueue.getName());
         retryTemplate.setChannelTransacted(true);
         register(retryQueue.getName(), retryTemplate);
         templates.put(retryQueue.getName(), retryTemplate);
+        confirmTemplate(retryQueue.getName(), retryExchange().getName());
+
+        //Retry Tier Queues
+        List<List<Long>> tiers = new ArrayList<>();
+        for (Long tier : getRetryTiers()) {
+            List<Long> delays = getRetryJitterDelays(tier);
+            tiers.add(delays);
+            for (Long delay : delays) {
+                declareRetryTier(queueName, delay);
+            }
+        }
+        retryTiers.put(queueName, tiers);
 
         //Error Queue
         Queue errorQueue = errorQueue(queueName);
@@ -190,20 +610,64 @@ public class BrokerMessageConfig implements PropertyListener {
         register(errorQueue.getName(), errorBinding);
 
         RabbitTemplate errorTemplate = new RabbitTemplate(connectionFactory());
+        errorTemplate.setMessageConverter(messageConverter());
         errorTemplate.setExchange(errorExchange().getName());
         errorTemplate.setRoutingKey(errorQueue.getName());
         errorTemplate.setChannelTransacted(true);
         register(errorQueue.getName(), errorTemplate);
         templates.put(errorQueue.getName(), errorTemplate);
+        confirmTemplate(errorQueue.getName(), errorExchange().getName());
 
         return workQueue.getName();
     }
 
+    private void declareRetryTier(String queueName, long delay) {
+        Queue tierQueue = retryTierQueue(queueName, delay);
+        amqpAdmin.declareQueue(tierQueue);
+        register(tierQueue.getName(), tierQueue);
+
+        Binding tierBinding = retryBinding(tierQueue);
+        amqpAdmin.declareBinding(tierBinding);
+        register(tierQueue.getName(), tierBinding);
+
+        RabbitTemplate tierTemplate = new RabbitTemplate(connectionFactory());
+        tierTemplate.setMessageConverter(messageConverter());
+        tierTemplate.setExchange(retryExchange().getName());
+        tierTemplate.setRoutingKey(tierQueue.getName());
+        tierTemplate.setChannelTransacted(true);
+        register(tierQueue.getName(), tierTemplate);
+        templates.put(tierQueue.getName(), tierTemplate);
+        confirmTemplate(tierQueue.getName(), retryExchange().getName());
+    }
+
+    private void confirmTemplate(String queueName, String exchangeName) {
+        PublisherConfirms confirms = new PublisherConfirms(queueName, getConfirmsWindow());
+        RabbitTemplate confirmTemplate = new RabbitTemplate(confirmConnectionFactory());
+        confirmTemplate.setMessageConverter(messageConverter());
+        confirmTemplate.setExchange(exchangeName);
+        confirmTemplate.setRoutingKey(queueName);
+        confirmTemplate.setConfirmCallback(confirms);
+        register(queueName, confirmTemplate);
+        confirmTemplates.put(queueName, confirmTemplate);
+        publisherConfirms.put(queueName, confirms);
+    }
+
     private SimpleMessageListenerContainer listenerContainer(String queueName, MessageHandler handler) {
         SimpleMessageListenerContainer container = new SimpleMessageListenerContainer();
         container.setConnectionFactory(connectionFactory());
         container.setQueueNames(queueName);
-        container.setMessageListener(new MessageListenerAdapter(handler));
+        if (getQueueBatchSize(queueName) > 1) {
+            container.setMessageListener(new BatchMessageListener(queueName, handler, messageConverter(), consumeExecutor, lingerExecutor,
+                    () -> getQueueBatchSize(queueName), () -> getQueueBatchLinger(queueName)));
+            container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        } else if (handler.isAsync()) {
+            container.setMessageListener(new AsyncMessageListener(queueName, handler, messageConverter()));
+            container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        } else {
+            container.setMessageListener(new MessageListenerAdapter(handler, messageConverter()));
+            container.setAcknowledgeMode(AcknowledgeMode.AUTO);
+        }
+        container.setPrefetchCount(getQueuePrefetch(queueName));
         container.setAutoStartup(false);
         container.setShutdownTimeout(50);
         container.setMaxConcurrentConsumers(getQueueMaxConsumers(queueName));
@@ -212,23 +676,44 @@ public class BrokerMessageConfig implements PropertyListener {
         register(queueName, container);
         containers.put(queueName, container);
         handlers.put(queueName, handler);
+        inboundRequestExecutor().setMaxPoolSize(getQueueMaxConsumers());
+        resizeLingerExecutor();
         return container;
     }
 
+    /**
+     * Expired batches are dispatched by at most one thread per consumer, the batches waiting for a thread are
+     * bounded by the prefetch of the consumers.
+     */
+    private void resizeLingerExecutor() {
+        int size = Math.max(1, getQueueMaxConsumers());
+        if (size > lingerExecutor.getMaximumPoolSize()) {
+            lingerExecutor.setMaximumPoolSize(size);
+            lingerExecutor.setCorePoolSize(size);
+        } else {
+            lingerExecutor.setCorePoolSize(size);
+            lingerExecutor.setMaximumPoolSize(size);
+        }
+    }
+
     private void register(String queueName, Object bean) {
         String beanName = queueName + bean.getClass().getSimpleName() + counter.incrementAndGet();
         ctx.getBeanFactory().registerSingleton(beanName, bean);
         ctx.getBeanFactory().initializeBean(bean, beanName);
     }
 
+    @Bean(destroyMethod = "shutdown")
+    public ConsumerTaskExecutor inboundRequestExecutor() {
+        return ConsumerTaskExecutor.create(consumerExecutorMode, "request-message-in-", getQueueMaxConsumers());
+    }
+
     @Bean
-    public AsyncTaskExecutor inboundRequestExecutor() {
-        SimpleAsyncTaskExecutor simpleAsyncTaskExecutor = new SimpleAsyncTaskExecutor("Request Consumer");
-        simpleAsyncTaskExecutor.setThreadNamePrefix("request-message-in-");
-        return simpleAsyncTaskExecutor;
+    public MessageConverter messageConverter() {
+        return new CompactMessageConverter(this::isCompactCodec, this::getCompressThreshold);
     }
 
     @Bean
+    @Primary
     public CachingConnectionFactory connectionFactory() {
         CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
         connectionFactory.setAddresses(amqpHosts);
@@ -238,6 +723,17 @@ public class BrokerMessageConfig implements PropertyListener {
         return connectionFactory;
     }
 
+    @Bean
+    public CachingConnectionFactory confirmConnectionFactory() {
+        CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
+        connectionFactory.setAddresses(amqpHosts);
+        connectionFactory.setUsername(amqpUser);
+        connectionFactory.setPassword(amqpPass);
+        connectionFactory.setVirtualHost(amqpVhost);
+        connectionFactory.setPublisherConfirms(true);
+        return connectionFactory;
+    }
+
     private Queue workQueue(String queueName) {
         return QueueBuilder.durable(queueName).build();
     }
@@ -249,6 +745,18 @@ public class BrokerMessageConfig implements PropertyListener {
                 .build();
     }
 
+    private Queue retryTierQueue(String queueName, long delay) {
+        return QueueBuilder.durable(retryTierQueueName(queueName, delay))
+                .withArgument("x-message-ttl", delay)
+                .withArgument("x-dead-letter-exchange", workExchange().getName())
+                .withArgument("x-dead-letter-routing-key", queueName)
+                .build();
+    }
+
+    private String retryTierQueueName(String queueName, long delay) {
+        return queueName + QUEUE_RETRY_SUFFIX + "." + delay;
+    }
+
     private Queue errorQueue(String queueName) {
         return QueueBuilder.durable(queueName + QUEUE_ERROR_SUFFIX).build();
     }
@@ -280,29 +788,59 @@ public class BrokerMessageConfig implements PropertyListener {
         return new DirectExchange("x.error.request", true, false);
     }
 
-    private int getQueueConsumers(String queueName) {
+    int getQueueConsumers(String queueName) {
         return dynamicProperties.getInteger("queue." + queueName + ".consumers", 10);
     }
 
-    private int getQueueMaxConsumers(String queueName) {
+    int getQueueMaxConsumers(String queueName) {
         return dynamicProperties.getInteger("queue." + queueName + ".consumers.max", 20);
     }
 
+    private int getQueueMaxConsumers() {
+        int maxConsumers = 0;
+        for (String queueName : containers.keySet()) {
+            maxConsumers += getQueueMaxConsumers(queueName);
+        }
+        return maxConsumers;
+    }
+
+    private int getQueuePrefetch(String queueName) {
+        return Math.max(dynamicProperties.getInteger("queue." + queueName + QUEUE_PREFETCH_SUFFIX, 1), getQueueBatchSize(queueName));
+    }
+
+    private int getQueueBatchSize(String queueName) {
+        return dynamicProperties.getInteger("queue." + queueName + QUEUE_BATCH_SIZE_SUFFIX, 1);
+    }
+
+    private long getQueueBatchLinger(String queueName) {
+        return dynamicProperties.getLong("queue." + queueName + QUEUE_BATCH_LINGER_SUFFIX, 100);
+    }
+
     @Override
     public void notify(String name, String value) {
         if (RABBIT_ENABLE.equals(name)) {
             if (isRabbitEnabled()) {
-                start();
+                startContainers();
+                stopDispatchers(true);
             } else {
-                stop();
+                stopContainers();
+                start();
             }
         } else if (name.startsWith("queue.")) {
             String queueName = getQueueName(name);
-            if (containers.containsKey(queueName)) {
+            if (name.endsWith(QUEUE_LOCAL_WORKERS_SUFFIX) && dispatchers.containsKey(queueName)) {
+                if (dispatchers.get(queueName).isRunning()) {
+                    dispatchers.get(queueName).resize(getLocalWorkers(queueName));
+                }
+            } else if (containers.containsKey(queueName)) {
                 if (name.endsWith(".consumers.max")) {
                     containers.get(queueName).setMaxConcurrentConsumers(getQueueMaxConsumers(queueName));
-                } else {
+                    inboundRequestExecutor().setMaxPoolSize(getQueueMaxConsumers());
+                    resizeLingerExecutor();
+                } else if (name.endsWith(".consumers")) {
                     containers.get(queueName).setConcurrentConsumers(getQueueConsumers(queueName));
+                } else if (name.endsWith(QUEUE_PREFETCH_SUFFIX) || name.endsWith(QUEUE_BATCH_SIZE_SUFFIX)) {
+                    containers.get(queueName).setPrefetchCount(getQueuePrefetch(queueName));
                 }
             }
         }
@@ -313,11 +851,26 @@ public class BrokerMessageConfig implements PropertyListener {
             String queueName = removeStart(name, "queue.");
             queueName = removeEnd(queueName, ".consumers");
             queueName = removeEnd(queueName, ".consumers.max");
+            queueName = removeEnd(queueName, QUEUE_PREFETCH_SUFFIX);
+            queueName = removeEnd(queueName, QUEUE_BATCH_SIZE_SUFFIX);
+            queueName = removeEnd(queueName, QUEUE_LOCAL_WORKERS_SUFFIX);
             return queueName;
         }
         return null;
     }
 
+    Map<String, SimpleMessageListenerContainer> getContainers() {
+        return Collections.unmodifiableMap(containers);
+    }
+
+
+    private LocalDispatcher getDispatcher(String queue) {
+        if (dispatchers.containsKey(queue)) {
+            return dispatchers.get(queue);
+        }
+        throw new RuntimeException("Local dispatcher not found: " + queue);
+    }
+
     private MessageHandler getHandler(String queue) {
         if (handlers.containsKey(queue)) {
             return handlers.get(queue);
@@ -332,27 +885,190 @@ public class BrokerMessageConfig implements PropertyListener {
         throw new RuntimeException("Queue not found: " + queue);
     }
 
+    private RabbitTemplate getConfirmTemplate(String queue) {
+        if (confirmTemplates.containsKey(queue)) {
+            return confirmTemplates.get(queue);
+        }
+        throw new RuntimeException("Queue not found: " + queue);
+    }
+
+    private BatchPublisher getBatchPublisher(String queue) {
+        if (batchPublishers.containsKey(queue)) {
+            return batchPublishers.get(queue);
+        }
+        throw new RuntimeException("Queue not found: " + queue);
+    }
+
+    private PublisherConfirms getPublisherConfirms(String queue) {
+        if (publisherConfirms.containsKey(queue)) {
+            return publisherConfirms.get(queue);
+        }
+        throw new RuntimeException("Queue not found: " + queue);
+    }
+
     @Scheduled(initialDelay = 60000, fixedDelay = 60000)
     public void queueInfo() {
-        if (rabbitClientEnabled && isRabbitEnabled()) {
-            for (String queueName : templates.keySet()) {
-                long consumerCount = rabbitClient.getQueue(amqpVhost, queueName).getConsumerCount();
-                long totalMessages = rabbitClient.getQueue(amqpVhost, queueName).getTotalMessages();
-                long consumerUtilisation = rabbitClient.getQueue(amqpVhost, queueName).getConsumerUtilisation();
-                report.info("Queue '{}': Consumers: {}/{}, Total Messages: {}",
-                        queueName, consumerUtilisation, consumerCount, totalMessages);
+        if (queueStats.isEnabled() && isRabbitEnabled()) {
+            for (Map.Entry<String, List<List<Long>>> entry : retryTiers.entrySet()) {
+                String queueName = entry.getKey();
+                QueueStats stats = queueStats.getQueueStats(queueName);
+                if (stats == null) {
+                    continue;
+                }
+                report.info("Queue '{}': Consumers: {}/{}, Total Messages: {}, Unacked: {}, Publish: {}/s, Deliver: {}/s, Retry: {}, Error: {}",
+                        queueName, String.format("%.2f", stats.getConsumerUtilisation()), stats.getConsumerCount(), stats.getTotalMessages(),
+                        stats.getMessagesUnacknowledged(), String.format("%.1f", stats.getPublishRate()), String.format("%.1f", stats.getDeliverRate()),
+                        getRetryMessages(queueName, entry.getValue()), getTotalMessages(queueName + QUEUE_ERROR_SUFFIX));
             }
         }
     }
 
+    private long getRetryMessages(String queueName, List<List<Long>> tiers) {
+        long total = getTotalMessages(queueName + QUEUE_RETRY_SUFFIX);
+        for (List<Long> delays : tiers) {
+            for (Long delay : delays) {
+                total += getTotalMessages(retryTierQueueName(queueName, delay));
+            }
+        }
+        return total;
+    }
+
+    private long getTotalMessages(String queueName) {
+        QueueStats stats = queueStats.getQueueStats(queueName);
+        return stats != null ? stats.getTotalMessages() : 0;
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void localDispatchInfo() {
+        dispatchers.entrySet().forEach(entry -> {
+            LocalDispatcher dispatcher = entry.getValue();
+            if (dispatcher.isRunning()) {
+                LocalDispatcher.WaitStats wait = dispatcher.resetWaitStats();
+                report.info("Local Queue '{}': Depth: {}/{}, Workers: {}, Dispatched: {}, Rejected: {}, Wait avg: {} ms, max: {} ms",
+                        entry.getKey(), dispatcher.getDepth(), dispatcher.getCapacity(), dispatcher.getWorkerCount(), wait.getCount(),
+                        dispatcher.getRejected(), String.format("%.2f", wait.getAverageMillis()), String.format("%.2f", wait.getMaxMillis()));
+            }
+        });
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void consumerExecutorInfo() {
+        ConsumerTaskExecutor executor = inboundRequestExecutor();
+        report.info("Consumer Executor: {}, Active: {}, Queued: {}, Current: {}, Created: {}, Max: {}, Overflow: {}", executor.getMode(),
+                executor.getActiveCount(), executor.getQueueSize(), executor.getPoolSize(), executor.getCreatedCount(), executor.getMaxPoolSize(),
+                executor.getOverflowCount());
+    }
+
     private Integer getRetryDelay() {
         return dynamicProperties.getInteger(RABBIT_RETRY_DELAY, 30000);
     }
 
+    private List<Long> getRetryTiers() {
+        List<Long> tiers = new ArrayList<>();
+        String value = dynamicProperties.getString(RABBIT_RETRY_TIERS, "");
+        for (String tier : split(value, ',')) {
+            if (isNotBlank(tier)) {
+                tiers.add(Long.valueOf(tier.trim()));
+            }
+        }
+        Collections.sort(tiers);
+        return tiers;
+    }
+
+    private double getRetryJitter() {
+        return Double.parseDouble(dynamicProperties.getString(RABBIT_RETRY_JITTER, "0.2"));
+    }
+
+    private int getRetryJitterQueues() {
+        return dynamicProperties.getInteger(RABBIT_RETRY_JITTER_QUEUES, 4);
+    }
+
+    /**
+     * RabbitMQ only expires messages at the head of a queue, so a message with a shorter expiration waits behind
+     * the older ones anyway. The jitter is spread instead over sub-queues of the tier, each with its own TTL
+     * between the tier delay and the delay less the jitter fraction.
+     */
+    private List<Long> getRetryJitterDelays(long delay) {
+        int queues = Math.max(1, getRetryJitterQueues());
+        long spread = (long) (delay * Math.min(Math.max(getRetryJitter(), 0), 1));
+        List<Long> delays = new ArrayList<>(queues);
+        for (int i = 0; i < queues; i++) {
+            long jittered = delay - spread * i / queues;
+            if (!delays.contains(jittered)) {
+                delays.add(jittered);
+            }
+        }
+        return delays;
+    }
+
     private Integer getRetryMax() {
         return dynamicProperties.getInteger(RABBIT_RETRY_MAX, 10);
     }
 
+    private boolean isPublisherConfirms(String queueName) {
+        return PUBLISH_MODE_CONFIRM.equalsIgnoreCase(dynamicProperties.getString("queue." + queueName + QUEUE_PUBLISH_MODE_SUFFIX, "transaction"));
+    }
+
+    private boolean isPublishBatch(String queueName) {
+        return dynamicProperties.getBoolean("queue." + queueName + QUEUE_PUBLISH_BATCH_SUFFIX, false);
+    }
+
+    private int getPublishBatchSize(String queueName) {
+        return dynamicProperties.getInteger("queue." + queueName + QUEUE_PUBLISH_BATCH_SIZE_SUFFIX, 64);
+    }
+
+    private long getPublishBatchLinger(String queueName) {
+        return dynamicProperties.getLong("queue." + queueName + QUEUE_PUBLISH_BATCH_LINGER_SUFFIX, 2);
+    }
+
+    private int getPublishBatchBuffer(String queueName) {
+        return dynamicProperties.getInteger("queue." + queueName + QUEUE_PUBLISH_BATCH_BUFFER_SUFFIX, 8192);
+    }
+
+    private boolean isCompactCodec() {
+        return "compact".equalsIgnoreCase(dynamicProperties.getString(RABBIT_MESSAGE_CODEC, "java"));
+    }
+
+    private int getCompressThreshold() {
+        return dynamicProperties.getInteger(RABBIT_MESSAGE_COMPRESS_THRESHOLD, 1024);
+    }
+
+    private long getSpoolBrokerRetryInterval() {
+        return dynamicProperties.getLong(SPOOL_BROKER_RETRY_INTERVAL, 5000);
+    }
+
+    private int getSpoolDrainBatch() {
+        return dynamicProperties.getInteger(SPOOL_DRAIN_BATCH, 1000);
+    }
+
+    private int getConfirmsWindow() {
+        return dynamicProperties.getInteger(RABBIT_CONFIRMS_WINDOW, 256);
+    }
+
+    private long getConfirmsTimeout() {
+        return dynamicProperties.getLong(RABBIT_CONFIRMS_TIMEOUT, 5000);
+    }
+
+    private boolean isLocalDispatchAsync() {
+        return LOCAL_DISPATCH_ASYNC.equalsIgnoreCase(localDispatchMode);
+    }
+
+    private int getLocalWorkers(String queueName) {
+        return dynamicProperties.getInteger("queue." + queueName + QUEUE_LOCAL_WORKERS_SUFFIX, getQueueConsumers(queueName));
+    }
+
+    private int getLocalCapacity(String queueName) {
+        return dynamicProperties.getInteger("queue." + queueName + QUEUE_LOCAL_CAPACITY_SUFFIX, 4096);
+    }
+
+    private long getLocalFullTimeout() {
+        return dynamicProperties.getLong(LOCAL_DISPATCH_FULL_TIMEOUT, 100);
+    }
+
+    private long getLocalStopTimeout() {
+        return dynamicProperties.getLong(LOCAL_DISPATCH_STOP_TIMEOUT, 30000);
+    }
+
     private boolean isRabbitEnabled() {
         return dynamicProperties.getBoolean(RABBIT_ENABLE, true);
     }
@@ -0,0 +1,112 @@
+package com.inspiring.surf.integration.broker;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import com.inspiring.surf.integration.util.CompactMapCodec;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+/**
+ * Writes message maps with {@link CompactMapCodec}, deflating bodies above the compression threshold, and
+ * reads both the compact format and any format supported by {@link SimpleMessageConverter}, including the
+ * legacy Java serialized maps. When the compact format is disabled, messages are written as before.
+ */
+public class CompactMessageConverter implements MessageConverter {
+
+    public static final String CONTENT_TYPE_COMPACT = "application/x-surf-compact";
+    private static final String CONTENT_ENCODING_DEFLATE = "deflate";
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    private final SimpleMessageConverter legacyConverter = new SimpleMessageConverter();
+    private final BooleanSupplier compactEnabled;
+    private final IntSupplier compressThreshold;
+
+    public CompactMessageConverter(BooleanSupplier compactEnabled, IntSupplier compressThreshold) {
+        this.compactEnabled = compactEnabled;
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (!compactEnabled.getAsBoolean() || !(object instanceof Map) || !CompactMapCodec.isSupported((Map<?, ?>) object)) {
+            return legacyConverter.toMessage(object, messageProperties);
+        }
+
+        byte[] body = CompactMapCodec.encode((Map<String, Object>) object);
+        int threshold = compressThreshold.getAsInt();
+        if (threshold > 0 && body.length > threshold) {
+            body = deflate(body);
+            messageProperties.setContentEncoding(CONTENT_ENCODING_DEFLATE);
+        }
+        messageProperties.setContentType(CONTENT_TYPE_COMPACT);
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        MessageProperties properties = message.getMessageProperties();
+        if (properties == null || !CONTENT_TYPE_COMPACT.equals(properties.getContentType())) {
+            return legacyConverter.fromMessage(message);
+        }
+
+        byte[] body = message.getBody();
+        if (CONTENT_ENCODING_DEFLATE.equals(properties.getContentEncoding())) {
+            body = inflate(body);
+        }
+        try {
+            return CompactMapCodec.decode(body);
+        } catch (IllegalArgumentException e) {
+            throw new MessageConversionException("Cannot decode compact message", e);
+        }
+    }
+
+    private byte[] deflate(byte[] body) {
+        Deflater deflater = deflaters.get();
+        byte[] buffer = buffers.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private byte[] inflate(byte[] body) {
+        Inflater inflater = inflaters.get();
+        byte[] buffer = buffers.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 3);
+        try {
+            inflater.setInput(body);
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new MessageConversionException("Truncated compressed message");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new MessageConversionException("Cannot inflate compact message", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.inspiring.surf.integration.broker;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.inspiring.surf.integration.rest.IepRestClient;
+import com.inspiring.surf.integration.rest.IepRestConfig;
+import com.inspiring.surf.integration.util.DynamicProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ConsumerAutoScaler {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsumerAutoScaler.class);
+    private static final Logger report = LoggerFactory.getLogger("monitor.reporter.log");
+
+    private static final String RABBIT_AUTOSCALE_ENABLED = "rabbit.autoscale.enabled";
+    private static final String RABBIT_AUTOSCALE_MESSAGES_PER_CONSUMER = "rabbit.autoscale.messages.per.consumer";
+    private static final String RABBIT_AUTOSCALE_UTILISATION_TARGET = "rabbit.autoscale.utilisation.target";
+    private static final String RABBIT_AUTOSCALE_SCALE_DOWN_SAMPLES = "rabbit.autoscale.scale.down.samples";
+    private static final String RABBIT_AUTOSCALE_STEP = "rabbit.autoscale.step";
+
+    private @Autowired BrokerMessageConfig broker;
+    private @Autowired QueueStatsCollector queueStats;
+    private @Autowired DynamicProperties dynamicProperties;
+    private @Autowired IepRestConfig iepRestConfig;
+    private @Autowired IepRestClient iepRestClient;
+
+    private final Map<String, QueueSample> samples = new HashMap<>();
+
+    @Scheduled(initialDelay = 10000, fixedDelayString = "${rabbit.autoscale.interval:5000}")
+    public void scale() {
+        if (!isEnabled() || !queueStats.isEnabled()) {
+            return;
+        }
+
+        int totalConsumers = 0;
+        for (Map.Entry<String, SimpleMessageListenerContainer> entry : broker.getContainers().entrySet()) {
+            String queueName = entry.getKey();
+            SimpleMessageListenerContainer container = entry.getValue();
+            QueueSample sample = samples.computeIfAbsent(queueName, name -> new QueueSample());
+            updateMin(queueName, sample);
+
+            if (container.isRunning()) {
+                try {
+                    QueueStats stats = queueStats.getQueueStats(queueName);
+                    if (stats != null && stats.getTimestamp() > sample.timestamp) {
+                        scale(queueName, container, sample, stats);
+                    }
+                } catch (Exception e) {
+                    log.warn("Error sampling queue: {}, cause: {}", queueName, e.getMessage());
+                }
+            }
+            totalConsumers += sample.consumers;
+        }
+
+        iepRestConfig.resizeExecutor(totalConsumers);
+        iepRestClient.resizeConnectionPool(totalConsumers);
+    }
+
+    private void scale(String queueName, SimpleMessageListenerContainer container, QueueSample sample, QueueStats stats) {
+        long now = stats.getTimestamp();
+        long ready = stats.getMessagesReady();
+        double utilisation = stats.getConsumerUtilisation();
+        double growthRate = sample.timestamp > 0 ? (ready - sample.ready) * 1000d / Math.max(1, now - sample.timestamp) : 0;
+        sample.ready = ready;
+        sample.timestamp = now;
+
+        int min = sample.min;
+        int max = Math.max(min, broker.getQueueMaxConsumers(queueName));
+        int current = Math.max(min, Math.min(max, sample.consumers));
+
+        int desired = (int) Math.ceil((double) ready / getMessagesPerConsumer());
+        if (ready > 0 && (growthRate > 0 || !Double.isNaN(utilisation) && utilisation < getUtilisationTarget())) {
+            desired = Math.max(desired, current + getStep());
+        }
+        desired = Math.max(min, Math.min(max, desired));
+
+        int target = current;
+        if (desired > current) {
+            target = desired;
+            sample.belowSamples = 0;
+        } else if (desired < current) {
+            if (++sample.belowSamples >= getScaleDownSamples()) {
+                target = Math.max(desired, current - getStep());
+                sample.belowSamples = 0;
+            }
+        } else {
+            sample.belowSamples = 0;
+        }
+
+        if (target != sample.consumers) {
+            report.info("Queue '{}': scaling consumers {} -> {}, Ready: {}, Growth: {}/s, Utilisation: {}",
+                    queueName, sample.consumers, target, ready, String.format("%.1f", growthRate), String.format("%.2f", utilisation));
+            container.setMaxConcurrentConsumers(max);
+            container.setConcurrentConsumers(target);
+            sample.consumers = target;
+        }
+    }
+
+    /**
+     * Reads the min consumers of the queue on every sample. A change resets the container to it, so the consumers
+     * scaled so far are dropped as well.
+     */
+    private void updateMin(String queueName, QueueSample sample) {
+        int min = broker.getQueueConsumers(queueName);
+        if (min != sample.min) {
+            sample.min = min;
+            sample.consumers = min;
+            sample.belowSamples = 0;
+        }
+    }
+
+    private boolean isEnabled() {
+        return dynamicProperties.getBoolean(RABBIT_AUTOSCALE_ENABLED, false);
+    }
+
+    private int getMessagesPerConsumer() {
+        return Math.max(1, dynamicProperties.getInteger(RABBIT_AUTOSCALE_MESSAGES_PER_CONSUMER, 1000));
+    }
+
+    private double getUtilisationTarget() {
+        return Double.parseDouble(dynamicProperties.getString(RABBIT_AUTOSCALE_UTILISATION_TARGET, "0.9"));
+    }
+
+    private int getScaleDownSamples() {
+        return dynamicProperties.getInteger(RABBIT_AUTOSCALE_SCALE_DOWN_SAMPLES, 6);
+    }
+
+    private int getStep() {
+        return Math.max(1, dynamicProperties.getInteger(RABBIT_AUTOSCALE_STEP, 2));
+    }
+
+    private static class QueueSample {
+
+        private int min = -1;
+        private int consumers;
+        private long ready;
+        private long timestamp;
+        private int belowSamples;
+    }
+}
@@ -0,0 +1,252 @@
+package com.inspiring.surf.integration.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import com.inspiring.surf.integration.util.BoundedMpmcQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process replacement for the broker queue when rabbit is disabled. Messages are put in a bounded lock-free
+ * queue and handed to the registered {@link MessageHandler} by a pool of worker threads, so the request thread
+ * returns as soon as the message is queued. When the queue is full the caller either fails right away or
+ * waits up to the given timeout for a free slot, and then gets a {@link BrokerBackpressureException}. The
+ * same exception rejects messages while the dispatcher is stopped, nothing is queued without a worker to take it.
+ */
+public class LocalDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalDispatcher.class);
+
+    private static final int SPINS = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final String queueName;
+    private final MessageHandler handler;
+    private final BoundedMpmcQueue<Task> queue;
+    private final ConcurrentLinkedQueue<Thread> idleWorkers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger workerSequence = new AtomicInteger();
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final AtomicInteger dispatching = new AtomicInteger();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile int workerCount;
+    private volatile boolean running;
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private long reportedDispatched;
+
+    public LocalDispatcher(String queueName, MessageHandler handler, int capacity) {
+        this.queueName = queueName;
+        this.handler = handler;
+        this.queue = new BoundedMpmcQueue<>(capacity);
+    }
+
+    public void dispatch(Map<String, Object> message, long timeoutMillis) {
+        Task task = new Task(message, System.nanoTime());
+        dispatching.incrementAndGet();
+        try {
+            offer(task, timeoutMillis);
+        } finally {
+            dispatching.decrementAndGet();
+        }
+
+        Thread idle = idleWorkers.poll();
+        if (idle != null) {
+            LockSupport.unpark(idle);
+        }
+    }
+
+    private void offer(Task task, long timeoutMillis) {
+        if (!running) {
+            rejected.increment();
+            throw new BrokerBackpressureException("Local dispatcher stopped: " + queueName, 1);
+        }
+        if (!queue.offer(task)) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            do {
+                if (!running || timeoutMillis <= 0 || System.nanoTime() - deadline >= 0) {
+                    rejected.increment();
+                    throw new BrokerBackpressureException("Local queue full: " + queueName, 1);
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            } while (!queue.offer(task));
+        }
+    }
+
+    public synchronized void start(int count) {
+        running = true;
+        resize(count);
+    }
+
+    public synchronized void resize(int count) {
+        workerCount = Math.max(1, count);
+        workers.removeIf(worker -> !worker.isAlive());
+        while (running && liveWorkers.get() < workerCount) {
+            liveWorkers.incrementAndGet();
+            Thread worker = new Thread(this::work, "local-dispatch-" + queueName + "-" + workerSequence.incrementAndGet());
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        idleWorkers.forEach(LockSupport::unpark);
+    }
+
+    /**
+     * Stops the workers, waiting for the messages being handled and for the dispatches in progress, and returns
+     * the messages still queued.
+     */
+    public List<Map<String, Object>> stop(long timeoutMillis) {
+        List<Thread> stopping;
+        synchronized (this) {
+            running = false;
+            stopping = new ArrayList<>(workers);
+            workers.clear();
+            liveWorkers.set(0);
+        }
+        stopping.forEach(LockSupport::unpark);
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (dispatching.get() > 0 && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        for (Thread worker : stopping) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return drain();
+    }
+
+    /**
+     * Returns the messages still queued, for a dispatcher that is not running.
+     */
+    public List<Map<String, Object>> drain() {
+        List<Map<String, Object>> pending = new ArrayList<>();
+        Task task;
+        while ((task = queue.poll()) != null) {
+            pending.add(task.message);
+        }
+        return pending;
+    }
+
+    private void work() {
+        Thread current = Thread.currentThread();
+        int idleSpins = 0;
+        while (running && !isSurplus()) {
+            Task task = queue.poll();
+            if (task == null) {
+                if (++idleSpins < SPINS) {
+                    Thread.yield();
+                } else {
+                    idleWorkers.add(current);
+                    if (queue.isEmpty()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    idleWorkers.remove(current);
+                }
+                continue;
+            }
+
+            idleSpins = 0;
+            long wait = System.nanoTime() - task.enqueued;
+            waitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            dispatched.increment();
+            try {
+                handler.handleMessage(task.message);
+            } catch (Throwable e) {
+                log.error("Error handling local message from queue: {}, message: {}, cause: {}", queueName, task.message, e.getMessage());
+            }
+        }
+    }
+
+    private boolean isSurplus() {
+        int live = liveWorkers.get();
+        return live > workerCount && liveWorkers.compareAndSet(live, live - 1);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the queue wait of the messages dispatched since the previous call and starts a new interval. The
+     * wait is measured from the dispatch call, so it includes the wait for a slot in a full queue.
+     */
+    public synchronized WaitStats resetWaitStats() {
+        long total = dispatched.sum();
+        long count = total - reportedDispatched;
+        reportedDispatched = total;
+        return new WaitStats(count, waitNanos.sumThenReset(), maxWaitNanos.getAndSet(0));
+    }
+
+    public static class WaitStats {
+
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private WaitStats(long count, long totalNanos, long maxNanos) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getAverageMillis() {
+            return count > 0 ? totalNanos / (double) count / 1000000d : 0;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / 1000000d;
+        }
+    }
+
+    private static class Task {
+
+        private final Map<String, Object> message;
+        private final long enqueued;
+
+        private Task(Map<String, Object> message, long enqueued) {
+            this.message = message;
+            this.enqueued = enqueued;
+        }
+    }
+}
@@ -1,9 +1,55 @@
 package com.inspiring.surf.integration.broker;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface MessageHandler {
 
     void handleMessage(Map<String, Object> request);
 
+    /**
+     * Handles the message without holding the calling thread, the future completes once the message was fully
+     * processed and can be acknowledged. The default runs {@link #handleMessage} on the calling thread.
+     */
+    default CompletableFuture<Void> handleMessageAsync(Map<String, Object> request) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            handleMessage(request);
+            result.complete(null);
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Handles a batch collected by {@link BatchMessageListener}. The futures are in the order of the requests and
+     * each completes once its message can be acknowledged, so the messages of a batch are acked or requeued on
+     * their own. The default handles the requests one by one, as {@link #handleMessageAsync} when async.
+     */
+    default List<CompletableFuture<Void>> handleMessages(List<Map<String, Object>> requests) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(requests.size());
+        for (Map<String, Object> request : requests) {
+            if (isAsync()) {
+                results.add(handleMessageAsync(request));
+                continue;
+            }
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            try {
+                handleMessage(request);
+                result.complete(null);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    default boolean isAsync() {
+        return false;
+    }
+
 }
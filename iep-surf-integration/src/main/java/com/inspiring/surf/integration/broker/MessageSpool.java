@@ -0,0 +1,368 @@
+package com.inspiring.surf.integration.broker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Append-only local spool of messages that could not be published to the broker. Records are written to
+ * memory-mapped segment files and forced to disk in batches, the future returned by {@link #append} completes
+ * when the record is synced. The drain side keeps its position in a checkpoint file and deletes segments once
+ * all their records were republished. The drain runs on its own thread, see {@link #scheduleDrain}, so slow
+ * republishing neither delays the syncs nor the application schedulers.
+ * <p>
+ * Record layout: length (int), crc32 of data (int), data = queue length (short), queue, body.
+ */
+public class MessageSpool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageSpool.class);
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String CHECKPOINT_FILE = "spool.checkpoint";
+    private static final int RECORD_HEADER = 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final ScheduledExecutorService flusher;
+    private final ScheduledExecutorService drainer;
+    private final Object lock = new Object();
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private volatile int writePosition;
+    private List<CompletableFuture<Void>> unsynced = new ArrayList<>();
+
+    private long readSegment;
+    private int readPosition;
+    private MappedByteBuffer readBuffer;
+    private long readBufferSegment = -1;
+    private final AtomicLong discardedRecords = new AtomicLong();
+    private final AtomicLong discardedBytes = new AtomicLong();
+
+    public interface RecordConsumer {
+
+        boolean accept(String queue, byte[] body);
+    }
+
+    public MessageSpool(File directory, int segmentSize, long fsyncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spool directory: " + directory);
+        }
+        recover();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "broker-spool-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::sync, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "broker-spool-drain");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the task on the drain thread with a fixed delay between runs. The task is expected to call
+     * {@link #drain}, which is not thread safe.
+     */
+    public void scheduleDrain(Runnable task, long initialDelayMillis, long delayMillis) {
+        drainer.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Error draining spool", e);
+            }
+        }, initialDelayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Void> append(String queue, byte[] body) throws IOException {
+        byte[] queueBytes = queue.getBytes(UTF_8);
+        int length = 2 + queueBytes.length + body.length;
+        if (RECORD_HEADER + length + 4 > segmentSize) {
+            throw new IOException("Message too large for spool segment: " + length);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(queueBytes.length >> 8);
+        crc.update(queueBytes.length);
+        crc.update(queueBytes);
+        crc.update(body);
+
+        CompletableFuture<Void> synced = new CompletableFuture<>();
+        synchronized (lock) {
+            if (writePosition + RECORD_HEADER + length + 4 > segmentSize) {
+                roll();
+            }
+            int position = writePosition;
+            writeBuffer.putInt(position + 4, (int) crc.getValue());
+            writeBuffer.putShort(position + RECORD_HEADER, (short) queueBytes.length);
+            ByteBuffer data = writeBuffer.duplicate();
+            data.position(position + RECORD_HEADER + 2);
+            data.put(queueBytes);
+            data.put(body);
+            writeBuffer.putInt(position, length);
+            writePosition = position + RECORD_HEADER + length;
+            unsynced.add(synced);
+        }
+        return synced;
+    }
+
+    public int drain(int maxRecords, RecordConsumer consumer) throws IOException {
+        int drained = 0;
+        int discarded = 0;
+        try {
+            while (drained < maxRecords) {
+                long writing;
+                int limit;
+                synchronized (lock) {
+                    writing = writeSegment;
+                    limit = writePosition;
+                }
+                if (readSegment == writing && readPosition >= limit) {
+                    break;
+                }
+
+                MappedByteBuffer buffer = readBuffer(readSegment);
+                int length = readPosition + RECORD_HEADER <= segmentSize ? buffer.getInt(readPosition) : 0;
+                if (length > 0 && length > segmentSize - readPosition - RECORD_HEADER) {
+                    discardSegmentTail(writing, limit, "Invalid spool record length " + length);
+                    discarded++;
+                    continue;
+                }
+                if (length <= 0 || (readSegment == writing && readPosition + RECORD_HEADER + length > limit)) {
+                    if (readSegment == writing) {
+                        break;
+                    }
+                    nextReadSegment();
+                    continue;
+                }
+
+                byte[] data = new byte[length];
+                ByteBuffer record = buffer.duplicate();
+                record.position(readPosition + RECORD_HEADER);
+                record.get(data);
+
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if ((int) crc.getValue() != buffer.getInt(readPosition + 4)) {
+                    discardSegmentTail(writing, limit, "Corrupted spool record");
+                    discarded++;
+                    continue;
+                }
+
+                int queueLength = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+                String queue = new String(data, 2, queueLength, UTF_8);
+                byte[] body = new byte[length - 2 - queueLength];
+                System.arraycopy(data, 2 + queueLength, body, 0, body.length);
+
+                if (!consumer.accept(queue, body)) {
+                    break;
+                }
+                readPosition += RECORD_HEADER + length;
+                drained++;
+            }
+        } finally {
+            if (drained > 0 || discarded > 0) {
+                writeCheckpoint();
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * The length of a corrupted record cannot be trusted to find the next one, so the rest of the segment is
+     * skipped: up to the write position in the segment being written, the whole file in an older one.
+     */
+    private void discardSegmentTail(long writing, int limit, String cause) throws IOException {
+        int end = readSegment == writing ? limit : segmentSize;
+        log.error("{} at segment {} position {}, discarding the remaining {} bytes of the segment", cause, readSegment, readPosition,
+                end - readPosition);
+        discardedRecords.incrementAndGet();
+        discardedBytes.addAndGet(end - readPosition);
+        if (readSegment == writing) {
+            readPosition = limit;
+        } else {
+            nextReadSegment();
+        }
+    }
+
+    /**
+     * Corruptions found by the drain, each one discards the rest of its segment.
+     */
+    public long getDiscardedRecords() {
+        return discardedRecords.get();
+    }
+
+    public long getDiscardedBytes() {
+        return discardedBytes.get();
+    }
+
+    public boolean isEmpty() {
+        synchronized (lock) {
+            return readSegment == writeSegment && readPosition >= writePosition;
+        }
+    }
+
+    public void sync() {
+        List<CompletableFuture<Void>> synced;
+        synchronized (lock) {
+            if (unsynced.isEmpty()) {
+                return;
+            }
+            writeBuffer.force();
+            synced = unsynced;
+            unsynced = new ArrayList<>();
+        }
+        synced.forEach(future -> future.complete(null));
+    }
+
+    @Override
+    public void close() {
+        drainer.shutdown();
+        flusher.shutdown();
+        sync();
+    }
+
+    private void roll() throws IOException {
+        writeBuffer.force();
+        writeSegment++;
+        writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+        writePosition = 0;
+        log.info("Spool rolled to segment: {}", writeSegment);
+    }
+
+    private void nextReadSegment() throws IOException {
+        long drainedSegment = readSegment;
+        TreeSet<Long> segments = listSegments();
+        Long next = segments.higher(drainedSegment);
+        readSegment = next != null ? next : writeSegment;
+        readPosition = 0;
+        writeCheckpoint();
+        if (drainedSegment != writeSegment && !segmentFile(drainedSegment).delete()) {
+            log.warn("Cannot delete drained spool segment: {}", segmentFile(drainedSegment));
+        }
+    }
+
+    private MappedByteBuffer readBuffer(long segment) throws IOException {
+        if (readBufferSegment != segment) {
+            readBuffer = map(segment, FileChannel.MapMode.READ_ONLY);
+            readBufferSegment = segment;
+        }
+        return readBuffer;
+    }
+
+    private void recover() throws IOException {
+        TreeSet<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            segments.add(1L);
+        }
+        writeSegment = segments.last();
+        writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+        writePosition = scanEnd(writeBuffer);
+
+        readSegment = segments.first();
+        readPosition = 0;
+        File checkpoint = new File(directory, CHECKPOINT_FILE);
+        if (checkpoint.exists()) {
+            try (FileChannel channel = FileChannel.open(checkpoint.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(12);
+                channel.read(buffer, 0);
+                buffer.flip();
+                if (buffer.remaining() == 12) {
+                    long segment = buffer.getLong();
+                    int position = buffer.getInt();
+                    if (segments.contains(segment)) {
+                        readSegment = segment;
+                        readPosition = position;
+                    }
+                }
+            }
+        }
+        log.info("Spool recovered, read: {}/{}, write: {}/{}", readSegment, readPosition, writeSegment, writePosition);
+    }
+
+    private int scanEnd(MappedByteBuffer buffer) {
+        int position = 0;
+        while (position + RECORD_HEADER <= segmentSize) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER + length > segmentSize) {
+                break;
+            }
+            byte[] data = new byte[length];
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + RECORD_HEADER);
+            record.get(data);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                log.warn("Torn spool record at position {}, truncating segment", position);
+                buffer.putInt(position, 0);
+                break;
+            }
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        File checkpoint = new File(directory, CHECKPOINT_FILE);
+        try (FileChannel channel = FileChannel.open(checkpoint.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(12);
+            buffer.putLong(readSegment);
+            buffer.putInt(readPosition);
+            buffer.flip();
+            channel.write(buffer, 0);
+            channel.force(false);
+        }
+    }
+
+    private MappedByteBuffer map(long segment, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(mode, 0, segmentSize);
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private TreeSet<Long> listSegments() {
+        TreeSet<Long> segments = new TreeSet<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    segments.add(Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unknown spool file: {}", name);
+                }
+            }
+        }
+        return segments;
+    }
+}
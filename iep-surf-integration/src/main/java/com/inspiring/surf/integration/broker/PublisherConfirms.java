@@ -0,0 +1,106 @@
+package com.inspiring.surf.integration.broker;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.CorrelationData;
+
+/**
+ * Tracks publisher confirms for a single queue template. Every published message gets a correlation id and
+ * a future that is completed when the broker acks (message is durable) or nacks it. The number of unconfirmed
+ * messages is bounded by the in-flight window, publishers block until a slot is available. With no timeout the
+ * publish does not wait and a full window is rejected as backpressure.
+ * <p>
+ * A caller that stops waiting cancels the future, which frees its window slot; a late confirm is then ignored.
+ * The message may still have reached the queue, so a publish retried after a timeout is delivered at least once,
+ * possibly twice.
+ */
+public class PublisherConfirms implements RabbitTemplate.ConfirmCallback {
+
+    private static final Logger log = LoggerFactory.getLogger(PublisherConfirms.class);
+
+    private final String queueName;
+    private final Semaphore window;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    public PublisherConfirms(String queueName, int windowSize) {
+        this.queueName = queueName;
+        this.window = new Semaphore(windowSize);
+    }
+
+    public CompletableFuture<Void> publish(long timeout, Consumer<CorrelationData> sender) {
+        acquire(timeout);
+
+        CorrelationData correlationData = new CorrelationData(queueName + "-" + sequence.incrementAndGet());
+        CompletableFuture<Void> confirmation = new CompletableFuture<>();
+        pending.put(correlationData.getId(), confirmation);
+        confirmation.whenComplete((v, e) -> {
+            if (confirmation.isCancelled()) {
+                cancel(correlationData.getId());
+            }
+        });
+
+        try {
+            sender.accept(correlationData);
+        } catch (RuntimeException e) {
+            cancel(correlationData.getId());
+            throw e;
+        }
+        return confirmation;
+    }
+
+    private void acquire(long timeout) {
+        if (timeout <= 0) {
+            if (!window.tryAcquire()) {
+                throw new BrokerBackpressureException("Publisher confirm window full for queue: " + queueName, 1);
+            }
+            return;
+        }
+        try {
+            if (!window.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new AmqpException("Publisher confirm window full for queue: " + queueName);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmqpException("Interrupted waiting for publisher confirm window: " + queueName, e);
+        }
+    }
+
+    public void cancel(String correlationId) {
+        if (pending.remove(correlationId) != null) {
+            window.release();
+        }
+    }
+
+    public int getInFlight() {
+        return pending.size();
+    }
+
+    @Override
+    public void confirm(CorrelationData correlationData, boolean ack, String cause) {
+        if (correlationData == null) {
+            return;
+        }
+        CompletableFuture<Void> confirmation = pending.remove(correlationData.getId());
+        if (confirmation == null) {
+            log.debug("Late confirm for message: {}", correlationData.getId());
+            return;
+        }
+        window.release();
+        if (ack) {
+            confirmation.complete(null);
+        } else {
+            log.warn("Message {} not confirmed by broker, cause: {}", correlationData.getId(), cause);
+            confirmation.completeExceptionally(new AmqpException("Message not confirmed by broker: " + cause));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.inspiring.surf.integration.broker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Immutable statistics of one broker queue, as returned by the management API at {@link #getTimestamp()}.
+ */
+public class QueueStats {
+
+    private final String name;
+    private final long timestamp;
+    private final long messagesReady;
+    private final long messagesUnacknowledged;
+    private final long totalMessages;
+    private final long consumerCount;
+    private final double consumerUtilisation;
+    private final double publishRate;
+    private final double deliverRate;
+
+    QueueStats(JsonNode info, long timestamp) {
+        this.name = info.path("name").asText();
+        this.timestamp = timestamp;
+        this.messagesReady = info.path("messages_ready").asLong();
+        this.messagesUnacknowledged = info.path("messages_unacknowledged").asLong();
+        this.totalMessages = info.path("messages").asLong();
+        this.consumerCount = info.path("consumers").asLong();
+        JsonNode utilisation = info.path("consumer_utilisation");
+        this.consumerUtilisation = utilisation.isNumber() ? utilisation.asDouble() : Double.NaN;
+
+        JsonNode stats = info.path("message_stats");
+        this.publishRate = stats.path("publish_details").path("rate").asDouble();
+        this.deliverRate = stats.path("deliver_get_details").path("rate").asDouble();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getMessagesReady() {
+        return messagesReady;
+    }
+
+    public long getMessagesUnacknowledged() {
+        return messagesUnacknowledged;
+    }
+
+    public long getTotalMessages() {
+        return totalMessages;
+    }
+
+    public long getConsumerCount() {
+        return consumerCount;
+    }
+
+    /**
+     * Fraction of the time the consumers could take new messages, from 0 to 1, or NaN when the broker has no
+     * sample for the queue.
+     */
+    public double getConsumerUtilisation() {
+        return consumerUtilisation;
+    }
+
+    /**
+     * Messages published per second, averaged by the broker over its sample window.
+     */
+    public double getPublishRate() {
+        return publishRate;
+    }
+
+    /**
+     * Messages delivered to consumers per second, averaged by the broker over its sample window.
+     */
+    public double getDeliverRate() {
+        return deliverRate;
+    }
+}
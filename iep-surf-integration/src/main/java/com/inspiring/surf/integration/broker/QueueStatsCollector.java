@@ -0,0 +1,118 @@
+package com.inspiring.surf.integration.broker;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.inspiring.surf.integration.util.DynamicProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.support.BasicAuthorizationInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriUtils;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Fetches the statistics of every queue of the vhost with a single management API call per interval and keeps
+ * them in an immutable snapshot, so components that need queue depth or rates read them locally instead of
+ * calling the management plugin themselves.
+ * <p>
+ * The queues are read as raw JSON: the management client maps <code>consumer_utilisation</code> to an integral
+ * type, which truncates the 0 to 1 fraction to 0.
+ */
+@Component
+public class QueueStatsCollector {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueStatsCollector.class);
+
+    private static final String RABBIT_ENABLE = "rabbit.enabled";
+
+    private @Value("${rabbit.client.enabled:true}") boolean rabbitClientEnabled;
+    private @Value("${rabbit.client.url:localhost:15672}") String clientUrl;
+    private @Value("${rabbit.user:guest}") String amqpUser;
+    private @Value("${rabbit.pass:guest}") String amqpPass;
+    private @Value("${rabbit.vhost:/}") String amqpVhost;
+    private @Autowired DynamicProperties dynamicProperties;
+
+    private RestTemplate rabbitClient;
+    private URI queuesUri;
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.emptyMap());
+
+    @PostConstruct
+    public void init() throws URISyntaxException, UnsupportedEncodingException {
+        if (rabbitClientEnabled) {
+            rabbitClient = new RestTemplate();
+            rabbitClient.getInterceptors().add(new BasicAuthorizationInterceptor(amqpUser, amqpPass));
+            queuesUri = new URI(clientUrl.endsWith("/") ? clientUrl : clientUrl + "/").resolve("queues/" + UriUtils.encodePathSegment(amqpVhost, "UTF-8"));
+        }
+    }
+
+    @Scheduled(initialDelay = 1000, fixedDelayString = "${rabbit.stats.interval:5000}")
+    public void refresh() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            long timestamp = currentTimeMillis();
+            JsonNode queues = rabbitClient.getForObject(queuesUri, JsonNode.class);
+            Map<String, QueueStats> stats = new HashMap<>();
+            if (queues != null) {
+                for (JsonNode info : queues) {
+                    QueueStats queue = new QueueStats(info, timestamp);
+                    stats.put(queue.getName(), queue);
+                }
+            }
+            snapshot = new Snapshot(timestamp, Collections.unmodifiableMap(stats));
+        } catch (Exception e) {
+            log.warn("Error fetching queue stats, keeping snapshot from {}, cause: {}", snapshot.getTimestamp(), e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return rabbitClientEnabled && dynamicProperties.getBoolean(RABBIT_ENABLE, true);
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the latest statistics of the queue, or null when the queue is unknown or stats are disabled.
+     */
+    public QueueStats getQueueStats(String queueName) {
+        return snapshot.getQueues().get(queueName);
+    }
+
+    public static class Snapshot {
+
+        private final long timestamp;
+        private final Map<String, QueueStats> queues;
+
+        private Snapshot(long timestamp, Map<String, QueueStats> queues) {
+            this.timestamp = timestamp;
+            this.queues = queues;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getAge() {
+            return timestamp > 0 ? currentTimeMillis() - timestamp : Long.MAX_VALUE;
+        }
+
+        public Map<String, QueueStats> getQueues() {
+            return queues;
+        }
+    }
+}
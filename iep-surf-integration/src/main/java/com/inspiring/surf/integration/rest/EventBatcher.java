@@ -0,0 +1,140 @@
+package com.inspiring.surf.integration.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the events of one template and sends them to the Iep Server in batches, flushing when the batch
+ * size is reached or when the linger time of the first buffered event expires. The sender completes the
+ * future of each event with its own outcome, true when the Iep Server accepted it.
+ * <p>
+ * The scheduler only collects the batches, each one is handed to the send executor, so a sender that blocks
+ * waiting for a free client thread does not hold up the linger flushes of the other templates.
+ */
+public class EventBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(EventBatcher.class);
+
+    private final String templateName;
+    private final ScheduledExecutorService executor;
+    private final Executor sendExecutor;
+    private final Consumer<List<PendingEvent>> sender;
+    private final IntSupplier batchSize;
+    private final LongSupplier lingerMillis;
+
+    private final ConcurrentLinkedQueue<PendingEvent> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private final AtomicBoolean lingerScheduled = new AtomicBoolean(false);
+
+    public EventBatcher(String templateName, ScheduledExecutorService executor, Executor sendExecutor,
+                        Consumer<List<PendingEvent>> sender, IntSupplier batchSize, LongSupplier lingerMillis) {
+        this.templateName = templateName;
+        this.executor = executor;
+        this.sendExecutor = sendExecutor;
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    public CompletableFuture<Boolean> submit(String source, Map<String, Object> variables) {
+        PendingEvent pending = new PendingEvent(source, variables);
+        buffer.offer(pending);
+        if (size.incrementAndGet() >= batchSize.getAsInt()) {
+            executor.execute(this::flush);
+        } else {
+            scheduleLinger();
+        }
+        return pending.result;
+    }
+
+    private void scheduleLinger() {
+        if (lingerScheduled.compareAndSet(false, true)) {
+            executor.schedule(() -> {
+                lingerScheduled.set(false);
+                flush();
+            }, lingerMillis.getAsLong(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int max = Math.max(1, batchSize.getAsInt());
+            while (size.get() > 0) {
+                List<PendingEvent> batch = new ArrayList<>(Math.min(max, size.get()));
+                PendingEvent pending;
+                while (batch.size() < max && (pending = buffer.poll()) != null) {
+                    batch.add(pending);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                size.addAndGet(-batch.size());
+                send(batch);
+            }
+        } finally {
+            flushing.set(false);
+        }
+
+        if (size.get() > 0) {
+            scheduleLinger();
+        }
+    }
+
+    private void send(List<PendingEvent> batch) {
+        log.debug("Sending batch of {} events, template: {}", batch.size(), templateName);
+        try {
+            sendExecutor.execute(() -> {
+                try {
+                    sender.accept(batch);
+                } catch (RuntimeException e) {
+                    log.warn("Error sending batch of {} events, template: {}, cause: {}", batch.size(), templateName, e.getMessage());
+                    batch.forEach(pending -> pending.result.completeExceptionally(e));
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("Error sending batch of {} events, template: {}, cause: {}", batch.size(), templateName, e.getMessage());
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+        }
+    }
+
+    public static class PendingEvent {
+
+        private final String source;
+        private final Map<String, Object> variables;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        PendingEvent(String source, Map<String, Object> variables) {
+            this.source = source;
+            this.variables = variables;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public Map<String, Object> getVariables() {
+            return variables;
+        }
+
+        public CompletableFuture<Boolean> getResult() {
+            return result;
+        }
+    }
+}
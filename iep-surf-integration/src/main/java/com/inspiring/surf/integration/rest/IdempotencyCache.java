@@ -0,0 +1,126 @@
+package com.inspiring.surf.integration.rest;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import com.inspiring.surf.integration.util.DynamicProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.split;
+
+/**
+ * Remembers the events sent to the Iep Server, keyed by a configurable tuple of message fields, so broker
+ * redeliveries and retries of an already processed message are not sent twice. Entries expire after a fixed
+ * time and the cache is bounded in size. In hash mode only a 64 bit hash of the key is kept, which takes a
+ * fraction of the memory of the full key for a negligible chance of a false duplicate.
+ */
+@Component
+public class IdempotencyCache {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyCache.class);
+    private static final Logger report = LoggerFactory.getLogger("monitor.reporter.log");
+
+    private static final String IEP_IDEMPOTENCY_ENABLED = "iep.idempotency.enabled";
+    private static final String IEP_IDEMPOTENCY_KEYS = "iep.idempotency.keys";
+    private static final String MODE_HASH = "hash";
+    private static final char SEPARATOR = '\u0001';
+
+    private @Value("${iep.idempotency.mode:exact}") String mode;
+    private @Value("${iep.idempotency.max.size:1000000}") long maxSize;
+    private @Value("${iep.idempotency.expire.minutes:60}") long expireMinutes;
+    private @Autowired DynamicProperties dynamicProperties;
+
+    private Cache<Object, Boolean> cache;
+    private final LongAdder duplicates = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireMinutes, TimeUnit.MINUTES)
+                .concurrencyLevel(16)
+                .recordStats()
+                .build();
+        log.info("Idempotency cache created, mode: {}, max size: {}, expire: {} min", mode, maxSize, expireMinutes);
+    }
+
+    /**
+     * Builds the idempotency key of the message, or returns null when the cache is disabled or none of the
+     * key fields are present.
+     */
+    public Object key(String source, Map<String, Object> variables) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(64).append(source);
+        boolean present = false;
+        for (String field : getKeyFields(source)) {
+            Object value = variables.get(field);
+            key.append(SEPARATOR);
+            if (value != null) {
+                key.append(value);
+                present = true;
+            }
+        }
+        if (!present) {
+            return null;
+        }
+
+        if (MODE_HASH.equalsIgnoreCase(mode)) {
+            return Hashing.murmur3_128().hashString(key, UTF_8).asLong();
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns false when the key was already seen, or is being processed by another consumer.
+     */
+    public boolean tryAcquire(Object key) {
+        boolean acquired = cache.asMap().putIfAbsent(key, Boolean.TRUE) == null;
+        if (!acquired) {
+            duplicates.increment();
+        }
+        return acquired;
+    }
+
+    /**
+     * Forgets the key, used when the event did not reach the Iep Server and must be sent again on retry.
+     */
+    public void release(Object key) {
+        cache.invalidate(key);
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void cacheInfo() {
+        if (isEnabled()) {
+            CacheStats stats = cache.stats();
+            report.info("Idempotency Cache: Size: {}, Duplicates: {}, Evicted: {}", cache.size(), duplicates.sumThenReset(), stats.evictionCount());
+        }
+    }
+
+    private String[] getKeyFields(String source) {
+        String keys = dynamicProperties.getString(IEP_IDEMPOTENCY_KEYS + "." + source);
+        if (isBlank(keys)) {
+            keys = dynamicProperties.getString(IEP_IDEMPOTENCY_KEYS, "correlationId,status,date");
+        }
+        return split(keys.replace(" ", ""), ',');
+    }
+
+    private boolean isEnabled() {
+        return dynamicProperties.getBoolean(IEP_IDEMPOTENCY_ENABLED, false);
+    }
+}
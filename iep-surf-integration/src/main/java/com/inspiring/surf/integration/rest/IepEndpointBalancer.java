@@ -0,0 +1,352 @@
+package com.inspiring.surf.integration.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.inspiring.surf.integration.util.DynamicProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import static java.lang.System.currentTimeMillis;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.removeEnd;
+import static org.apache.commons.lang3.StringUtils.split;
+
+/**
+ * Spreads the events over the Iep Server endpoints listed in <code>iep.server.url</code>. Each request picks
+ * two random endpoints and takes the cheaper one, the cost being the in-flight requests, weighted by the
+ * peak-EWMA latency in ewma mode. Endpoints that fail or time out several times in a row are ejected for a
+ * while. When the ejection expires the endpoint is half-open: it takes a single probe request, a success
+ * brings it back to full traffic and a failure sends it out again for twice as long.
+ */
+@Component
+public class IepEndpointBalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(IepEndpointBalancer.class);
+    private static final Logger report = LoggerFactory.getLogger("monitor.reporter.log");
+
+    private static final String IEP_SERVER_URL = "iep.server.url";
+    private static final String IEP_SERVER_BALANCER_MODE = "iep.server.balancer.mode";
+    private static final String IEP_SERVER_BALANCER_DECAY = "iep.server.balancer.decay";
+    private static final String IEP_SERVER_EJECT_FAILURES = "iep.server.eject.failures";
+    private static final String IEP_SERVER_EJECT_TIME = "iep.server.eject.time";
+    private static final String IEP_SERVER_HEDGE_MIN_DELAY = "iep.server.hedge.min.delay";
+    private static final String MODE_LEAST_OUTSTANDING = "least.outstanding";
+    private static final int MAX_EJECTION_SHIFT = 5;
+    private static final int LATENCY_BUCKETS = 160;
+    private static final double LATENCY_BUCKET_BASE = Math.log(1.1);
+    private static final int MIN_LATENCY_SAMPLES = 100;
+
+    private @Autowired DynamicProperties dynamicProperties;
+
+    private volatile Endpoints endpoints = new Endpoints("", Collections.emptyList());
+    private volatile AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+    private volatile long latencyP99 = -1;
+
+    /**
+     * Picks the endpoint for the next request, ignoring the excluded one. Returns null when there is no
+     * other endpoint to pick; when every endpoint is ejected, the one closest to coming back is returned.
+     */
+    public Endpoint select(Endpoint exclude) {
+        return select(exclude, true);
+    }
+
+    /**
+     * Picks an endpoint for a hedged request, only one that is in service or half-open and admits the request
+     * as its probe. Returns null when there is none; an endpoint returned and then not sent to must be given
+     * back with {@link #release}.
+     */
+    public Endpoint selectHedge(Endpoint exclude) {
+        return select(exclude, false);
+    }
+
+    /**
+     * Gives back the probe an endpoint admitted in {@link #selectHedge} when no request is sent to it.
+     */
+    public void release(Endpoint endpoint) {
+        if (endpoint.ejections != 0) {
+            endpoint.probing.set(false);
+        }
+    }
+
+    private Endpoint select(Endpoint exclude, boolean fallbackToEjected) {
+        List<Endpoint> list = getEndpoints();
+        int size = list.size();
+        if (size == 0) {
+            throw new RuntimeException("Iep Server url not found: " + IEP_SERVER_URL);
+        }
+        if (size == 1) {
+            Endpoint only = list.get(0);
+            if (exclude == only) {
+                return null;
+            }
+            return fallbackToEjected || only.isAvailable(currentTimeMillis()) && only.admit() ? only : null;
+        }
+
+        long now = currentTimeMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(size);
+        int j = random.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+        Endpoint a = list.get(i);
+        Endpoint b = list.get(j);
+        boolean availableA = a != exclude && a.isAvailable(now);
+        boolean availableB = b != exclude && b.isAvailable(now);
+        if (availableA && availableB && cost(b, now) < cost(a, now)) {
+            Endpoint cheaper = b;
+            b = a;
+            a = cheaper;
+        }
+        if (availableA && a.admit()) {
+            return a;
+        } else if (availableB && b.admit()) {
+            return b;
+        }
+
+        Endpoint fallback = null;
+        for (Endpoint endpoint : list) {
+            if (endpoint == exclude) {
+                continue;
+            }
+            if (endpoint.isAvailable(now) && endpoint.admit()) {
+                return endpoint;
+            }
+            if (fallback == null || endpoint.ejectedUntil < fallback.ejectedUntil) {
+                fallback = endpoint;
+            }
+        }
+        return fallbackToEjected ? fallback : null;
+    }
+
+    public long start(Endpoint endpoint) {
+        endpoint.outstanding.incrementAndGet();
+        endpoint.requests.increment();
+        return currentTimeMillis();
+    }
+
+    /**
+     * Records the outcome of a request started with {@link #start}. A failure is an error reaching the
+     * endpoint or a server error, client errors count as successful round trips.
+     */
+    public void finish(Endpoint endpoint, long start, boolean failed) {
+        long now = currentTimeMillis();
+        long latency = now - start;
+        endpoint.outstanding.decrementAndGet();
+        endpoint.observe(latency, now, getDecay());
+        recordLatency(latency);
+
+        boolean probe = endpoint.probing.get();
+        if (!failed) {
+            endpoint.consecutiveFailures.set(0);
+            endpoint.ejections = 0;
+            if (probe) {
+                endpoint.probing.set(false);
+                log.info("Iep Server endpoint probe succeeded, back in service: {}", endpoint.url);
+            }
+            return;
+        }
+
+        endpoint.failures.increment();
+        if (probe) {
+            synchronized (endpoint) {
+                eject(endpoint, now);
+                endpoint.probing.set(false);
+            }
+            return;
+        }
+        if (endpoint.consecutiveFailures.incrementAndGet() >= getEjectFailures() && endpoint.ejectedUntil <= now) {
+            synchronized (endpoint) {
+                if (endpoint.ejectedUntil <= now) {
+                    eject(endpoint, now);
+                }
+            }
+        }
+    }
+
+    private void eject(Endpoint endpoint, long now) {
+        long ejectTime = getEjectTime() << Math.min(endpoint.ejections, MAX_EJECTION_SHIFT);
+        endpoint.ejections++;
+        endpoint.ejectedUntil = now + ejectTime;
+        log.warn("Iep Server endpoint ejected for {} ms: {}", ejectTime, endpoint.url);
+    }
+
+    /**
+     * Delay before a hedged request is sent: the p99 latency of the last interval, not below the configured
+     * minimum.
+     */
+    public long getHedgeDelay() {
+        return Math.max(latencyP99, dynamicProperties.getLong(IEP_SERVER_HEDGE_MIN_DELAY, 50));
+    }
+
+    public List<Endpoint> getEndpoints() {
+        String url = dynamicProperties.getString(IEP_SERVER_URL, "");
+        Endpoints current = endpoints;
+        if (!current.url.equals(url)) {
+            current = parse(url, current);
+            endpoints = current;
+        }
+        return current.list;
+    }
+
+    @Scheduled(initialDelay = 10000, fixedDelay = 10000)
+    public void updateLatency() {
+        AtomicLongArray window = latencies;
+        latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            total += window.get(i);
+        }
+        if (total < MIN_LATENCY_SAMPLES) {
+            return;
+        }
+        long threshold = total - total / 100;
+        long count = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            count += window.get(i);
+            if (count >= threshold) {
+                latencyP99 = (long) Math.ceil(Math.exp((i + 1) * LATENCY_BUCKET_BASE));
+                return;
+            }
+        }
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void endpointInfo() {
+        long now = currentTimeMillis();
+        for (Endpoint endpoint : endpoints.list) {
+            report.info("Iep Server Endpoint: {}, Outstanding: {}, Latency: {} ms, Requests: {}, Failures: {}, Ejected: {}", endpoint.url,
+                    endpoint.outstanding.get(), (long) endpoint.ewma, endpoint.requests.sumThenReset(), endpoint.failures.sumThenReset(),
+                    !endpoint.isAvailable(now));
+        }
+    }
+
+    private double cost(Endpoint endpoint, long now) {
+        int outstanding = endpoint.outstanding.get();
+        if (MODE_LEAST_OUTSTANDING.equalsIgnoreCase(getMode())) {
+            return outstanding;
+        }
+        return (endpoint.decayedEwma(now, getDecay()) + 1) * (outstanding + 1);
+    }
+
+    private void recordLatency(long latency) {
+        int bucket = latency <= 1 ? 0 : (int) (Math.log(latency) / LATENCY_BUCKET_BASE);
+        latencies.incrementAndGet(Math.min(bucket, LATENCY_BUCKETS - 1));
+    }
+
+    private Endpoints parse(String url, Endpoints previous) {
+        Map<String, Endpoint> existing = new HashMap<>();
+        for (Endpoint endpoint : previous.list) {
+            existing.put(endpoint.url, endpoint);
+        }
+        List<Endpoint> list = new ArrayList<>();
+        if (!isBlank(url)) {
+            for (String value : split(url, ',')) {
+                String endpointUrl = removeEnd(value.trim(), "/");
+                if (!endpointUrl.isEmpty()) {
+                    Endpoint endpoint = existing.get(endpointUrl);
+                    list.add(endpoint != null ? endpoint : new Endpoint(endpointUrl));
+                }
+            }
+        }
+        log.info("Iep Server endpoints: {}", list);
+        return new Endpoints(url, Collections.unmodifiableList(list));
+    }
+
+    private String getMode() {
+        return dynamicProperties.getString(IEP_SERVER_BALANCER_MODE, "ewma");
+    }
+
+    private long getDecay() {
+        return dynamicProperties.getLong(IEP_SERVER_BALANCER_DECAY, 10000);
+    }
+
+    private int getEjectFailures() {
+        return dynamicProperties.getInteger(IEP_SERVER_EJECT_FAILURES, 3);
+    }
+
+    private long getEjectTime() {
+        return dynamicProperties.getLong(IEP_SERVER_EJECT_TIME, 10000);
+    }
+
+    private static class Endpoints {
+
+        private final String url;
+        private final List<Endpoint> list;
+
+        private Endpoints(String url, List<Endpoint> list) {
+            this.url = url;
+            this.list = list;
+        }
+    }
+
+    public static class Endpoint {
+
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private volatile double ewma;
+        private volatile long lastObserved = currentTimeMillis();
+        private volatile long ejectedUntil;
+        private volatile int ejections;
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        private Endpoint(String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Not ejected, and not half-open with its probe in flight.
+         */
+        private boolean isAvailable(long now) {
+            return ejectedUntil <= now && (ejections == 0 || !probing.get());
+        }
+
+        /**
+         * Takes the request: always when the endpoint is healthy, only as the single probe when half-open.
+         */
+        private boolean admit() {
+            return ejections == 0 || probing.compareAndSet(false, true);
+        }
+
+        /**
+         * Peak-EWMA: a slower sample is taken at once, faster samples pull the average down over the decay time.
+         */
+        private synchronized void observe(long latency, long now, long decay) {
+            double weight = Math.exp(-Math.max(0, now - lastObserved) / (double) Math.max(1, decay));
+            ewma = latency > ewma ? latency : ewma * weight + latency * (1 - weight);
+            lastObserved = now;
+        }
+
+        /**
+         * The average decays towards zero while the endpoint gets no traffic, so an idle endpoint is tried again.
+         */
+        private double decayedEwma(long now, long decay) {
+            return ewma * Math.exp(-Math.max(0, now - lastObserved) / (double) Math.max(1, decay));
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.inspiring.surf.integration.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Latency histograms of the Iep Server delivery, keyed by source and by outcome (success, error, retry) or
+ * phase (queue, connection, wire). Values are recorded in microseconds into HdrHistogram recorders; every
+ * interval the recorded values become the published snapshot, exposed over JMX, the metrics resource and the
+ * monitor report.
+ */
+@Component
+@ManagedResource(objectName = "com.inspiring.surf.integration:name=IepLatencyMetrics", description = "Iep Server delivery latency")
+public class IepLatencyMetrics {
+
+    private static final Logger report = LoggerFactory.getLogger("monitor.reporter.log");
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_RETRY = "retry";
+    public static final String PHASE_QUEUE = "queue";
+    public static final String PHASE_CONNECTION = "connection";
+    public static final String PHASE_WIRE = "wire";
+
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private volatile Map<String, Histogram> snapshot = Collections.emptyMap();
+
+    public void record(String source, String name, long nanos) {
+        String key = source + "." + name;
+        Recorder recorder = recorders.get(key);
+        if (recorder == null) {
+            recorder = recorders.computeIfAbsent(key, k -> new Recorder(3));
+        }
+        recorder.recordValue(Math.max(0, NANOSECONDS.toMicros(nanos)));
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void latencyInfo() {
+        Map<String, Histogram> histograms = new TreeMap<>();
+        recorders.forEach((key, recorder) -> histograms.put(key, recorder.getIntervalHistogram()));
+        snapshot = Collections.unmodifiableMap(histograms);
+
+        histograms.forEach((key, histogram) -> {
+            if (histogram.getTotalCount() > 0) {
+                report.info("Iep Latency: {}, Count: {}, p50: {} ms, p99: {} ms, p999: {} ms, Max: {} ms", key, histogram.getTotalCount(),
+                        millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                        millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()));
+            }
+        });
+    }
+
+    /**
+     * Percentiles in milliseconds of the last interval, by histogram key.
+     */
+    public Map<String, Map<String, Object>> getPercentiles() {
+        Map<String, Map<String, Object>> percentiles = new LinkedHashMap<>();
+        snapshot.forEach((key, histogram) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", histogram.getTotalCount());
+            values.put("p50", millis(histogram.getValueAtPercentile(50)));
+            values.put("p90", millis(histogram.getValueAtPercentile(90)));
+            values.put("p99", millis(histogram.getValueAtPercentile(99)));
+            values.put("p999", millis(histogram.getValueAtPercentile(99.9)));
+            values.put("max", millis(histogram.getMaxValue()));
+            percentiles.put(key, values);
+        });
+        return percentiles;
+    }
+
+    @ManagedAttribute(description = "Latency percentiles in ms of the last interval")
+    public String[] getLatencyPercentiles() {
+        List<String> lines = new ArrayList<>();
+        getPercentiles().forEach((key, values) -> lines.add(key + " " + values));
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -1,60 +1,105 @@
 package com.inspiring.surf.integration.rest;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.io.Resources;
 import com.inspiring.surf.integration.broker.BrokerMessageConfig;
 import com.inspiring.surf.integration.broker.BrokerRetryException;
 import com.inspiring.surf.integration.listeners.PropertyListener;
+import com.inspiring.surf.integration.util.AuditWriter;
 import com.inspiring.surf.integration.util.BlockingThreadPoolExecutor;
+import com.inspiring.surf.integration.util.BodyCompressor;
 import com.inspiring.surf.integration.util.DynamicProperties;
-import com.inspiring.surf.integration.util.MapUtils;
+import com.inspiring.surf.integration.util.EventTemplate;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.nio.charset.Charset;
-import java.util.AbstractMap;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 import javax.annotation.PostConstruct;
-import org.apache.commons.lang3.text.StrSubstitutor;
+import javax.annotation.PreDestroy;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
-import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
-import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import static java.lang.System.currentTimeMillis;
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.concurrent.CompletableFuture.runAsync;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 @Component
 public class IepRestClient implements PropertyListener {
 
     private static final Logger log = LoggerFactory.getLogger(IepRestClient.class);
-    private static final Logger error = LoggerFactory.getLogger("integration.audit.error");
-    private static final Logger success = LoggerFactory.getLogger("integration.audit.success");
 
     private static final String HEADER_RESPONSE_ERROR_CODE = "X-SMKT-ErrorCode";
     private static final String HEADER_RESPONSE_ERROR_MSG = "X-SMKT-ErrorMessage";
+    private static final StatusResponseExtractor STATUS_EXTRACTOR = new StatusResponseExtractor(HEADER_RESPONSE_ERROR_CODE, HEADER_RESPONSE_ERROR_MSG);
+    private static final ThreadLocal<long[]> CONNECTED_AT = ThreadLocal.withInitial(() -> new long[1]);
+    private static final ThreadLocal<BodyBuffer> bodyBuffers = ThreadLocal.withInitial(BodyBuffer::new);
     private static final String IEP_SERVER_ENABLE = "iep.server.enable";
     private static final String IEP_SERVER_URL = "iep.server.url";
     private static final String IEP_SERVER_REQUEST_TIMEOUT = "iep.server.request.timeout";
@@ -62,15 +107,53 @@ public class IepRestClient implements PropertyListener {
     private static final String IEP_SERVER_SOCKET_TIMEOUT = "iep.server.socket.timeout";
     private static final String IEP_SERVER_MAX_CONNECTIONS = "iep.server.max.connections";
     private static final String IEP_EVENT_ENDPOINT = "/rs/event";
+    private static final String IEP_IDEMPOTENCY_KEEP_ON_TIMEOUT = "iep.idempotency.keep.on.timeout";
+    private static final String SOCKET_TIMEOUT = "SocketTimeoutException";
+    private static final String IEP_SERVER_ASYNC_MAX_CONNECTIONS = "iep.server.async.max.connections";
+    private static final String CLIENT_MODE_ASYNC = "async";
+    private static final String IEP_SERVER_TEMPLATE_MODE = "iep.server.template.mode";
+    private static final String TEMPLATE_MODE_TEXT = "text";
+    private static final String IEP_SERVER_BATCH_ENABLED = "iep.server.batch.enabled";
+    private static final String IEP_SERVER_BATCH_ENDPOINT = "iep.server.batch.endpoint";
+    private static final String IEP_SERVER_BATCH_SIZE = "iep.server.batch.size";
+    private static final String IEP_SERVER_BATCH_LINGER = "iep.server.batch.linger.ms";
+    private static final String IEP_SERVER_COMPRESSION = "iep.server.compression";
+    private static final String IEP_SERVER_COMPRESSION_THRESHOLD = "iep.server.compression.threshold";
+    private static final String IEP_SERVER_COMPRESSION_LEVEL = "iep.server.compression.level";
+    private static final int MAX_BODY_BUFFER = 1024 * 1024;
+    private static final int HEDGE_QUEUE = 1024;
+    private static final String IEP_SERVER_HEDGE_ENABLED = "iep.server.hedge.enabled";
+    private static final String IEP_SERVER_POOL_PREWARM = "iep.server.pool.prewarm.connections";
     private static final String IEP_SERVER_TEMPLATE_RELOAD_INTERVAL = "iep.server.template.reload.interval.seconds";
 
     private @Autowired DynamicProperties dynamicProperties;
     private @Autowired ResourceLoader resourceLoader;
     private @Autowired BrokerMessageConfig broker;
     private @Autowired BlockingThreadPoolExecutor iepServerRestExecutor;
-
-    private RestTemplate iepServer;
-    private Map<String, Map.Entry<Long, String>> eventTemplates = new HashMap<>();
+    private @Autowired IdempotencyCache idempotencyCache;
+    private @Autowired IepEndpointBalancer balancer;
+    private @Autowired IepLatencyMetrics latencyMetrics;
+    private @Autowired AuditWriter audit;
+    private @Autowired ThreadPoolTaskExecutor iepServerCallbackExecutor;
+    private @Value("${iep.server.client.mode:blocking}") String clientMode;
+    private @Value("${iep.server.request.streaming:false}") boolean requestStreaming;
+    private @Value("${iep.server.pool.idle.timeout.seconds:300}") long poolIdleTimeout;
+
+    private volatile RestTemplate iepServer;
+    private volatile AsyncRestTemplate iepServerAsync;
+    private HttpComponentsClientHttpRequestFactory requestFactory;
+    private HttpComponentsAsyncClientHttpRequestFactory asyncRequestFactory;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private volatile int consumers;
+    private final Map<String, LoadedTemplate> eventTemplates = new ConcurrentHashMap<>();
+    private final Map<String, EventBatcher> eventBatchers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("iep-client-"));
+    private final ExecutorService batchExecutor = Executors.newCachedThreadPool(new CustomizableThreadFactory("iep-batch-"));
+    private final ExecutorService prewarmExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("iep-prewarm-"));
+    private final ExecutorService hedgeExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HEDGE_QUEUE),
+            new CustomizableThreadFactory("iep-hedge-"), new ThreadPoolExecutor.DiscardPolicy());
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @PostConstruct
     public void init() {
@@ -78,8 +161,22 @@ public class IepRestClient implements PropertyListener {
         dynamicProperties.registerListener(IEP_SERVER_CONNECTION_TIMEOUT, this);
         dynamicProperties.registerListener(IEP_SERVER_SOCKET_TIMEOUT, this);
         dynamicProperties.registerListener(IEP_SERVER_MAX_CONNECTIONS, this);
+        dynamicProperties.registerListener(IEP_SERVER_ASYNC_MAX_CONNECTIONS, this);
         dynamicProperties.registerListener(IEP_SERVER_ENABLE, this);
+        dynamicProperties.registerListener(IEP_SERVER_URL, this);
         updateHttpClientConfig();
+        PoolingHttpClientConnectionManager cm = connectionManager;
+        prewarmExecutor.execute(() -> prewarm(cm));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdown();
+        batchExecutor.shutdown();
+        prewarmExecutor.shutdownNow();
+        hedgeExecutor.shutdown();
+        close("Iep Server client", requestFactory);
+        close("Iep Server async client", asyncRequestFactory);
     }
 
     public void executeEvent(String source, String eventTemplateName, Map<String, Object> variables) throws Throwable {
@@ -89,97 +186,476 @@ public class IepRestClient implements PropertyListener {
             throw new BrokerRetryException("Iep Server Disabled");
         }
 
-        try {
-            runAsync(() -> {
-
-                String body = createEvent(eventTemplateName, variables);
+        Object idempotencyKey = idempotencyCache.key(source, variables);
+        if (idempotencyKey != null && !idempotencyCache.tryAcquire(idempotencyKey)) {
+            log.debug("Duplicate event skipped: {}", variables);
+            audit.duplicate(source, variables);
+            return;
+        }
 
-                MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-                headers.add("Content-Type", "application/json");
+        long start = System.nanoTime();
+        String outcome = IepLatencyMetrics.OUTCOME_ERROR;
+        try {
+            if (doExecuteEvent(source, eventTemplateName, variables)) {
+                outcome = IepLatencyMetrics.OUTCOME_SUCCESS;
+            }
+        } catch (Throwable e) {
+            outcome = getOutcome(false, e);
+            if (idempotencyKey != null && !isDuplicateOnTimeoutSuppressed(e)) {
+                idempotencyCache.release(idempotencyKey);
+            }
+            throw e;
+        } finally {
+            latencyMetrics.record(source, outcome, System.nanoTime() - start);
+        }
+    }
 
-                HttpEntity<String> request = new HttpEntity<>(body, headers);
+    /**
+     * Returns true when the Iep Server accepted the event, false when the failure was audited.
+     */
+    private boolean doExecuteEvent(String source, String eventTemplateName, Map<String, Object> variables) throws Throwable {
+        try {
+            if (isBatchEnabled()) {
                 try {
-                    log.debug("Executing event: {}", body);
-                    ResponseEntity<Object> responseEntity = iepServer.postForEntity(getIepServerUrl() + IEP_EVENT_ENDPOINT, request, Object.class);
-
-                    if (responseEntity.getStatusCode().is2xxSuccessful()) {
-                        log.debug("Event executed with success: {}", body);
-                        success.info("type={}|{}", source, MapUtils.toString(variables, "|"));
-                    } else {
-                        error.info("error=HTTP-{}|type={}|{}", responseEntity.getStatusCode().value(), source, MapUtils.toString(variables, "|"));
-                    }
-                } catch (HttpStatusCodeException e) {
-                    if (e.getStatusCode().is4xxClientError()) {
-                        String errorCode = e.getResponseHeaders().getFirst(HEADER_RESPONSE_ERROR_CODE);
-                        String errorMsg = e.getResponseHeaders().getFirst(HEADER_RESPONSE_ERROR_MSG);
-                        error.info("error={}|type={}|{}", isBlank(errorCode) ? e.getStatusCode() : errorCode, source, MapUtils.toString(variables, "|"));
-                        log.warn("Event executed with error: {} - {}", errorCode, errorMsg);
-                    } else {
-                        log.error("Event not executed, server error:  {}", e.getStatusCode());
-                        error.info("error={}|type={}|{}", e.getStatusCode(), source, MapUtils.toString(variables, "|"));
-                    }
-                } catch (RestClientException e) {
-                    if (e.getRootCause() instanceof SocketTimeoutException) {
-                        throw new BrokerRetryException("SocketTimeoutException");
-                    } else if (e.getRootCause() instanceof ConnectTimeoutException) {
-                        throw new BrokerRetryException("ConnectTimeoutException");
-                    } else if (e.getRootCause() instanceof ConnectException) {
-                        throw new BrokerRetryException("ConnectException");
-                    }
-                    if (log.isDebugEnabled()) {
-                        log.error("Event not executed, server error.", e);
-                    } else {
-                        log.error("Event not executed, server error: {}", e.getMessage());
-                    }
-                    error.info("error=0|type={}|{}", source, MapUtils.toString(variables, "|"));
+                    return getEventBatcher(eventTemplateName).submit(source, variables).get(getBatchResultTimeout(), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    log.warn("Batch result not received in {} ms: {}", getBatchResultTimeout(), variables);
+                    throw new BrokerRetryException(SOCKET_TIMEOUT);
                 }
-            }, iepServerRestExecutor).get();
+            }
+            EventTemplate template = getEventTemplate(eventTemplateName);
+            log.debug("Executing event: {}", variables);
+            try {
+                return onResponse(source, variables, deliver(source, template, variables).get());
+            } catch (ExecutionException e) {
+                return onError(source, variables, e.getCause());
+            }
         } catch (InterruptedException e) {
             if (log.isDebugEnabled()) {
                 log.error("Event interrupted.", e);
             } else {
                 log.error("Event interrupted: {}", e.getMessage());
             }
-            error.info("error=0|type={}|{}", source, MapUtils.toString(variables, "|"));
+            audit.error(0, source, variables);
+            return false;
         } catch (ExecutionException e) {
             throw e.getCause();
         }
     }
 
-    private String createEvent(String templateName, Map<String, Object> variables) {
-        String template = getEventRequestTemplate(templateName);
-        StrSubstitutor sub = new StrSubstitutor(variables);
-        return sub.replace(template);
+    /**
+     * Sends the event with the non-blocking client. The future completes on the callback executor once the
+     * response was audited, or fails with {@link BrokerRetryException} when the event must be retried.
+     */
+    public CompletableFuture<Void> executeEventAsync(String source, String eventTemplateName, Map<String, Object> variables) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        if (!isIepServerEnable()) {
+            log.debug("Iep Server Disabled");
+            result.completeExceptionally(new BrokerRetryException("Iep Server Disabled"));
+            return result;
+        }
+
+        Object idempotencyKey = idempotencyCache.key(source, variables);
+        if (idempotencyKey != null && !idempotencyCache.tryAcquire(idempotencyKey)) {
+            log.debug("Duplicate event skipped: {}", variables);
+            audit.duplicate(source, variables);
+            result.complete(null);
+            return result;
+        }
+
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<Boolean> delivered;
+            if (isBatchEnabled()) {
+                delivered = getEventBatcher(eventTemplateName).submit(source, variables);
+            } else {
+                EventTemplate template = getEventTemplate(eventTemplateName);
+                log.debug("Executing event: {}", variables);
+                CompletableFuture<Boolean> audited = new CompletableFuture<>();
+                deliver(source, template, variables).whenComplete((responseEntity, e) -> complete(audited,
+                        () -> e != null ? onError(source, variables, e) : onResponse(source, variables, responseEntity)));
+                delivered = audited;
+            }
+            delivered.whenComplete((accepted, e) -> {
+                latencyMetrics.record(source, getOutcome(Boolean.TRUE.equals(accepted), e), System.nanoTime() - start);
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(null);
+                }
+            });
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+        }
+
+        if (idempotencyKey == null) {
+            return result;
+        }
+        return result.whenComplete((v, e) -> {
+            if (e != null && !isDuplicateOnTimeoutSuppressed(e)) {
+                idempotencyCache.release(idempotencyKey);
+            }
+        });
+    }
+
+    /**
+     * Sends the event to the endpoint picked by the balancer. With hedging enabled, a second request goes to
+     * another endpoint when the first one takes longer than the recent p99 latency, and the first response
+     * wins. The hedge is only sent when the client has spare capacity for it. It is sent from its own thread,
+     * since the executor may block, and dropped when hedges queue up there.
+     */
+    private CompletableFuture<ResponseEntity<Void>> deliver(String source, EventTemplate template, Map<String, Object> variables) {
+        IepEndpointBalancer.Endpoint endpoint = balancer.select(null);
+        CompletableFuture<ResponseEntity<Void>> primary = send(source, endpoint, template, variables);
+        if (!isHedgeEnabled() || primary.isDone()) {
+            return primary;
+        }
+
+        CompletableFuture<ResponseEntity<Void>> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        BiConsumer<ResponseEntity<Void>, Throwable> onDone = (responseEntity, e) -> {
+            if (e == null) {
+                result.complete(responseEntity);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(e);
+            }
+        };
+        primary.whenComplete(onDone);
+
+        ScheduledFuture<?> hedge = scheduler.schedule(() -> hedgeExecutor.execute(() -> {
+            if (result.isDone() || !hasSpareCapacity()) {
+                return;
+            }
+            IepEndpointBalancer.Endpoint other = balancer.selectHedge(endpoint);
+            if (other == null) {
+                return;
+            }
+            if (pending.getAndUpdate(p -> p > 0 ? p + 1 : p) == 0) {
+                balancer.release(other);
+                return;
+            }
+            log.debug("Hedging event to {}, {} did not answer in time", other, endpoint);
+            send(source, other, template, variables).whenComplete(onDone);
+        }), balancer.getHedgeDelay(), TimeUnit.MILLISECONDS);
+        result.whenComplete((responseEntity, e) -> hedge.cancel(false));
+        return result;
+    }
+
+    /**
+     * In blocking mode the time queued for the executor, waiting for a pooled connection and on the wire are
+     * recorded separately.
+     */
+    private CompletableFuture<ResponseEntity<Void>> send(String source, IepEndpointBalancer.Endpoint endpoint, EventTemplate template,
+                                                         Map<String, Object> variables) {
+        CompletableFuture<ResponseEntity<Void>> future = new CompletableFuture<>();
+        String url = endpoint.getUrl() + IEP_EVENT_ENDPOINT;
+        long start = balancer.start(endpoint);
+        future.whenComplete((responseEntity, e) -> balancer.finish(endpoint, start, isEndpointFailure(e)));
+
+        try {
+            if (isAsync()) {
+                iepServerAsync.execute(url, HttpMethod.POST, request -> writeEvent(template, variables, request),
+                        STATUS_EXTRACTOR).addCallback(future::complete, future::completeExceptionally);
+            } else {
+                long submitted = System.nanoTime();
+                iepServerRestExecutor.execute(() -> {
+                    long started = System.nanoTime();
+                    latencyMetrics.record(source, IepLatencyMetrics.PHASE_QUEUE, started - submitted);
+                    long[] connected = CONNECTED_AT.get();
+                    connected[0] = 0;
+                    try {
+                        future.complete(iepServer.execute(url, HttpMethod.POST,
+                                request -> writeEvent(template, variables, request),
+                                STATUS_EXTRACTOR));
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        if (connected[0] > 0) {
+                            latencyMetrics.record(source, IepLatencyMetrics.PHASE_CONNECTION, connected[0] - started);
+                            latencyMetrics.record(source, IepLatencyMetrics.PHASE_WIRE, System.nanoTime() - connected[0]);
+                        }
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Client errors are answers of a healthy endpoint, anything else means the endpoint failed or timed out.
+     */
+    private boolean isEndpointFailure(Throwable e) {
+        return e != null && !(e instanceof HttpClientErrorException);
+    }
+
+    private boolean hasSpareCapacity() {
+        if (isAsync()) {
+            PoolingNHttpClientConnectionManager cm = asyncConnectionManager;
+            return cm == null || cm.getTotalStats().getPending() == 0;
+        }
+        return iepServerRestExecutor.getActiveCount() < iepServerRestExecutor.getMaxPoolSize();
+    }
+
+    private String getOutcome(boolean accepted, Throwable e) {
+        if (e instanceof BrokerRetryException) {
+            return IepLatencyMetrics.OUTCOME_RETRY;
+        }
+        return e == null && accepted ? IepLatencyMetrics.OUTCOME_SUCCESS : IepLatencyMetrics.OUTCOME_ERROR;
+    }
+
+    private void complete(CompletableFuture<Boolean> result, BooleanSupplier callback) {
+        iepServerCallbackExecutor.execute(() -> {
+            try {
+                result.complete(callback.getAsBoolean());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private EventBatcher getEventBatcher(String templateName) {
+        return eventBatchers.computeIfAbsent(templateName, name -> new EventBatcher(name, scheduler, batchExecutor,
+                batch -> sendBatch(name, batch), this::getBatchSize, this::getBatchLinger));
+    }
+
+    /**
+     * Sends the events as a JSON array to the batch endpoint. The response is a JSON array with one result per
+     * event, in the same order: {"status": 200} or {"status": 4xx, "errorCode": "...", "errorMessage": "..."}.
+     */
+    private void sendBatch(String templateName, List<EventBatcher.PendingEvent> batch) {
+        EventTemplate template = getEventTemplate(templateName);
+        IepEndpointBalancer.Endpoint endpoint = balancer.select(null);
+        String url = endpoint.getUrl() + getBatchEndpoint();
+        log.debug("Executing batch of {} events, template: {}", batch.size(), templateName);
+
+        long start = balancer.start(endpoint);
+        if (isAsync()) {
+            iepServerAsync.execute(url, HttpMethod.POST, request -> writeBatch(template, batch, request),
+                    this::readBatchResponse).addCallback(results -> {
+                balancer.finish(endpoint, start, false);
+                completeBatch(batch, results, null);
+            }, e -> {
+                balancer.finish(endpoint, start, isEndpointFailure(e));
+                completeBatch(batch, null, e);
+            });
+        } else {
+            iepServerRestExecutor.execute(() -> {
+                try {
+                    JsonNode results = iepServer.execute(url, HttpMethod.POST,
+                            request -> writeBatch(template, batch, request), this::readBatchResponse);
+                    balancer.finish(endpoint, start, false);
+                    completeBatch(batch, results, null);
+                } catch (RuntimeException e) {
+                    balancer.finish(endpoint, start, isEndpointFailure(e));
+                    completeBatch(batch, null, e);
+                }
+            });
+        }
+    }
+
+    private void writeBatch(EventTemplate template, List<EventBatcher.PendingEvent> batch, HttpOutputMessage request) throws IOException {
+        boolean jsonEscape = !TEMPLATE_MODE_TEXT.equalsIgnoreCase(getTemplateMode());
+        writeBody(request, body -> {
+            body.write('[');
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    body.write(',');
+                }
+                template.writeTo(batch.get(i).getVariables(), body, jsonEscape);
+            }
+            body.write(']');
+        });
+    }
+
+    private JsonNode readBatchResponse(ClientHttpResponse response) throws IOException {
+        return objectMapper.readTree(response.getBody());
+    }
+
+    private void completeBatch(List<EventBatcher.PendingEvent> batch, JsonNode results, Throwable failure) {
+        iepServerCallbackExecutor.execute(() -> {
+            for (int i = 0; i < batch.size(); i++) {
+                EventBatcher.PendingEvent pending = batch.get(i);
+                try {
+                    if (failure != null) {
+                        pending.getResult().complete(onError(pending.getSource(), pending.getVariables(), failure));
+                    } else {
+                        JsonNode result = results != null && results.isArray() ? results.get(i) : null;
+                        pending.getResult().complete(onBatchResult(pending.getSource(), pending.getVariables(), result));
+                    }
+                } catch (Throwable e) {
+                    pending.getResult().completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private boolean onBatchResult(String source, Map<String, Object> variables, JsonNode result) {
+        int status = result != null ? result.path("status").asInt(0) : 0;
+        if (status >= 200 && status < 300) {
+            log.debug("Event executed with success: {}", variables);
+            audit.success(source, variables);
+            return true;
+        } else if (status >= 400 && status < 500) {
+            String errorCode = result.path("errorCode").asText(null);
+            String errorMsg = result.path("errorMessage").asText(null);
+            audit.error(isBlank(errorCode) ? status : errorCode, source, variables);
+            log.warn("Event executed with error: {} - {}", errorCode, errorMsg);
+        } else if (status >= 500) {
+            log.error("Event not executed, server error:  {}", status);
+            audit.error(status, source, variables);
+        } else {
+            throw new BrokerRetryException("Missing batch result");
+        }
+        return false;
+    }
+
+    public boolean isAsync() {
+        return CLIENT_MODE_ASYNC.equalsIgnoreCase(clientMode);
+    }
+
+    /**
+     * Writes the event straight to the request body as UTF-8. In json mode the values are escaped, so quotes,
+     * backslashes and control characters in the SMS text do not break the event.
+     */
+    private void writeEvent(EventTemplate template, Map<String, Object> variables, HttpOutputMessage request) throws IOException {
+        boolean jsonEscape = !TEMPLATE_MODE_TEXT.equalsIgnoreCase(getTemplateMode());
+        writeBody(request, body -> template.writeTo(variables, body, jsonEscape));
+    }
+
+    /**
+     * Without compression the body is written straight to the request. With compression it is rendered into a
+     * reusable per thread buffer first, so its size is known before the headers are sent, and compressed when
+     * above the threshold. Streaming requests do not support getBody, their body is set as a callback that runs
+     * when the request executes, on the same thread.
+     */
+    private void writeBody(HttpOutputMessage request, BodyWriter writer) throws IOException {
+        String encoding = getCompression();
+        if (!BodyCompressor.isSupported(encoding)) {
+            request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            if (request instanceof StreamingHttpOutputMessage) {
+                ((StreamingHttpOutputMessage) request).setBody(writer::write);
+            } else {
+                writer.write(request.getBody());
+            }
+            return;
+        }
+
+        BodyBuffer buffer = bodyBuffers.get();
+        if (buffer.capacity() > MAX_BODY_BUFFER) {
+            buffer = new BodyBuffer();
+            bodyBuffers.set(buffer);
+        }
+        buffer.reset();
+        writer.write(buffer);
+
+        boolean compress = buffer.size() >= getCompressionThreshold();
+        HttpHeaders headers = request.getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (compress) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, encoding.toLowerCase());
+        }
+
+        BodyBuffer body = buffer;
+        int level = getCompressionLevel();
+        if (request instanceof StreamingHttpOutputMessage) {
+            ((StreamingHttpOutputMessage) request).setBody(out -> body.writeTo(out, compress, encoding, level));
+        } else {
+            body.writeTo(request.getBody(), compress, encoding, level);
+        }
+    }
+
+    private boolean onResponse(String source, Map<String, Object> variables, ResponseEntity<?> responseEntity) {
+        if (responseEntity.getStatusCode().is2xxSuccessful()) {
+            log.debug("Event executed with success: {}", variables);
+            audit.success(source, variables);
+            return true;
+        }
+        audit.error("HTTP-" + responseEntity.getStatusCode().value(), source, variables);
+        return false;
     }
 
-    private String getEventRequestTemplate(String templateName) {
-        if (eventTemplates.containsKey(templateName)) {
-            Map.Entry<Long, String> template = eventTemplates.get(templateName);
-            if (template.getKey() > currentTimeMillis() + getFileReloadInterval()) {
-                return loadTemplate(templateName);
+    /**
+     * Audits the failed event, or throws {@link BrokerRetryException} when the Iep Server could not be reached
+     * or did not answer in time.
+     */
+    private boolean onError(String source, Map<String, Object> variables, Throwable e) {
+        if (e instanceof HttpStatusCodeException) {
+            HttpStatusCodeException statusException = (HttpStatusCodeException) e;
+            if (statusException.getStatusCode().is4xxClientError()) {
+                String errorCode = statusException.getResponseHeaders().getFirst(HEADER_RESPONSE_ERROR_CODE);
+                String errorMsg = statusException.getResponseHeaders().getFirst(HEADER_RESPONSE_ERROR_MSG);
+                audit.error(isBlank(errorCode) ? statusException.getStatusCode() : errorCode, source, variables);
+                log.warn("Event executed with error: {} - {}", errorCode, errorMsg);
+            } else {
+                log.error("Event not executed, server error:  {}", statusException.getStatusCode());
+                audit.error(statusException.getStatusCode(), source, variables);
             }
-            return template.getValue();
+            return false;
+        }
+
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                throw new BrokerRetryException(SOCKET_TIMEOUT);
+            } else if (cause instanceof ConnectTimeoutException) {
+                throw new BrokerRetryException("ConnectTimeoutException");
+            } else if (cause instanceof ConnectException) {
+                throw new BrokerRetryException("ConnectException");
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.error("Event not executed, server error.", e);
         } else {
-            return loadTemplate(templateName);
+            log.error("Event not executed, server error: {}", e.getMessage());
         }
+        audit.error(0, source, variables);
+        return false;
     }
 
-    private String loadTemplate(String templateName) {
+    /**
+     * A socket timeout may happen after the Iep Server processed the event. When configured, the key is kept
+     * so the retry of that message is skipped as a duplicate instead of possibly executing the event twice.
+     */
+    private boolean isDuplicateOnTimeoutSuppressed(Throwable e) {
+        return e instanceof BrokerRetryException && SOCKET_TIMEOUT.equals(e.getMessage())
+                && dynamicProperties.getBoolean(IEP_IDEMPOTENCY_KEEP_ON_TIMEOUT, false);
+    }
+
+    private EventTemplate getEventTemplate(String templateName) {
+        LoadedTemplate template = eventTemplates.get(templateName);
+        if (template != null && currentTimeMillis() - template.checked < getFileReloadInterval()) {
+            return template.template;
+        }
+        return eventTemplates.compute(templateName, this::loadTemplate).template;
+    }
+
+    /**
+     * Compiles the template when it is not loaded yet or its file changed, otherwise keeps the loaded one.
+     * Runs inside {@link ConcurrentHashMap#compute}, so only one thread reloads a given template.
+     */
+    private LoadedTemplate loadTemplate(String templateName, LoadedTemplate loaded) {
+        long now = currentTimeMillis();
+        if (loaded != null && now - loaded.checked < getFileReloadInterval()) {
+            return loaded;
+        }
+
         Resource file = resourceLoader.getResource("classpath:" + templateName);
         if (file.exists()) {
             try {
-                long lastModified = file.getFile().lastModified();
-                if (eventTemplates.containsKey(templateName)) {
-                    if (eventTemplates.get(templateName).getKey() == lastModified) {
-                        return eventTemplates.get(templateName).getValue();
-                    }
+                long lastModified = file.lastModified();
+                if (loaded != null && loaded.lastModified == lastModified) {
+                    return new LoadedTemplate(loaded.template, lastModified, now);
                 }
-                String template = Resources.toString(file.getURL(), UTF_8);
-                Map.Entry<Long, String> entry = new AbstractMap.SimpleEntry<>(lastModified, template);
-                eventTemplates.put(templateName, entry);
-                return template;
+                EventTemplate template = EventTemplate.compile(Resources.toString(file.getURL(), UTF_8));
+                log.info("Event template loaded: {}, variables: {}", templateName, template.getVariableCount());
+                return new LoadedTemplate(template, lastModified, now);
             } catch (IOException e) {
                 log.error("Error loading event template: " + templateName, e);
+                if (loaded != null) {
+                    return loaded;
+                }
                 throw new RuntimeException("Error loading event template: " + templateName, e);
             }
         }
@@ -202,21 +678,200 @@ public class IepRestClient implements PropertyListener {
                 .setConnectionManager(createConnectionManager())
                 .setDefaultSocketConfig(socketConfig)
                 .setDefaultRequestConfig(requestConfig)
-                .evictIdleConnections(10, TimeUnit.SECONDS)
+                .evictIdleConnections(poolIdleTimeout, TimeUnit.SECONDS)
+                .setRequestExecutor(new TimedRequestExecutor())
+                .build();
+    }
+
+    private CloseableHttpAsyncClient createHttpAsyncClient() {
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setSoTimeout(getSocketTimeout())
+                .setConnectTimeout(getConnectionTimeout())
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
                 .build();
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(getRequestTimeout())
+                .setConnectTimeout(getConnectionTimeout())
+                .setSocketTimeout(getSocketTimeout())
+                .setCookieSpec("default").build();
+
+        try {
+            PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+            cm.setMaxTotal(getAsyncMaxConnections());
+            cm.setDefaultMaxPerRoute(getAsyncMaxConnections());
+            asyncConnectionManager = cm;
+
+            return HttpAsyncClients.custom()
+                    .setConnectionManager(cm)
+                    .setDefaultRequestConfig(requestConfig)
+                    .build();
+        } catch (IOReactorException e) {
+            log.error("Error creating Iep Server async client", e);
+            throw new RuntimeException("Error creating Iep Server async client", e);
+        }
     }
 
     private HttpClientConnectionManager createConnectionManager() {
         PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-        cm.closeIdleConnections(20, TimeUnit.SECONDS);
-        cm.setMaxTotal(getMaxConnections());
-        cm.setDefaultMaxPerRoute(getMaxConnections());
+        cm.setMaxTotal(getPoolSize());
+        cm.setDefaultMaxPerRoute(getPoolSize());
         cm.setValidateAfterInactivity(30000);
+        connectionManager = cm;
         return cm;
     }
 
-    private String getIepServerUrl() {
-        return dynamicProperties.getString(IEP_SERVER_URL);
+    /**
+     * Sizes the pool for the consumers. A pool that grows is pre-warmed again, also reopening the connections
+     * closed as idle while the traffic was low.
+     */
+    public void resizeConnectionPool(int consumers) {
+        this.consumers = consumers;
+        PoolingHttpClientConnectionManager cm = connectionManager;
+        if (cm != null && cm.getMaxTotal() != getPoolSize()) {
+            log.info("Resizing Iep Server connection pool: {} -> {}", cm.getMaxTotal(), getPoolSize());
+            boolean grown = getPoolSize() > cm.getMaxTotal();
+            cm.setMaxTotal(getPoolSize());
+            cm.setDefaultMaxPerRoute(getPoolSize());
+            if (grown) {
+                prewarmExecutor.execute(() -> prewarm(cm));
+            }
+        }
+    }
+
+    /**
+     * Opens keep-alive connections to the Iep Server and returns them to the pool, so the first requests after
+     * a pool is created, grown or an endpoint is added do not pay for the TCP and TLS handshakes. Stops at the first
+     * connection error of each endpoint. Runs on its own thread, the connects can block up to the timeouts.
+     */
+    private void prewarm(PoolingHttpClientConnectionManager cm) {
+        List<IepEndpointBalancer.Endpoint> endpoints = balancer.getEndpoints();
+        if (endpoints.isEmpty()) {
+            return;
+        }
+        int count = Math.min(getPrewarmConnections(), getPoolSize() / endpoints.size());
+        for (IepEndpointBalancer.Endpoint endpoint : endpoints) {
+            prewarm(cm, endpoint.getUrl(), count);
+        }
+    }
+
+    private void prewarm(PoolingHttpClientConnectionManager cm, String url, int count) {
+        if (count <= 0) {
+            return;
+        }
+
+        List<HttpClientConnection> connections = new ArrayList<>(count);
+        try {
+            HttpHost host = URIUtils.extractHost(new URI(url));
+            HttpRoute route = new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+            for (int i = 0; i < count; i++) {
+                HttpClientConnection connection = cm.requestConnection(route, null).get(getRequestTimeout(), TimeUnit.MILLISECONDS);
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    cm.connect(connection, route, getConnectionTimeout(), context);
+                    cm.routeComplete(connection, route, context);
+                }
+            }
+            log.info("Iep Server connection pool pre-warmed with {} connections to {}", count, url);
+        } catch (Exception e) {
+            log.warn("Error pre-warming Iep Server connection pool to {}, opened: {}, cause: {}", url, connections.size(), e.getMessage());
+        } finally {
+            for (HttpClientConnection connection : connections) {
+                cm.releaseConnection(connection, null, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Applies the timeouts to the existing clients. The request factories override the connect, read and
+     * connection request timeouts of every request, so no connection has to be closed.
+     */
+    private synchronized void updateTimeouts() {
+        applyTimeouts(requestFactory);
+        PoolingHttpClientConnectionManager cm = connectionManager;
+        if (cm != null) {
+            cm.setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(getSocketTimeout()).build());
+        }
+        if (asyncRequestFactory != null) {
+            applyTimeouts(asyncRequestFactory);
+        }
+        log.info("Iep Server timeouts updated, connection: {}, socket: {}, request: {}", getConnectionTimeout(), getSocketTimeout(), getRequestTimeout());
+    }
+
+    private void applyTimeouts(HttpComponentsClientHttpRequestFactory factory) {
+        factory.setConnectTimeout(getConnectionTimeout());
+        factory.setReadTimeout(getSocketTimeout());
+        factory.setConnectionRequestTimeout(getRequestTimeout());
+    }
+
+    private void close(String name, DisposableBean client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.destroy();
+            log.info("{} closed", name);
+        } catch (Exception e) {
+            log.warn("Error closing {}, cause: {}", name, e.getMessage());
+        }
+    }
+
+    private int getPrewarmConnections() {
+        return dynamicProperties.getInteger(IEP_SERVER_POOL_PREWARM, 10);
+    }
+
+    private int getAsyncMaxConnections() {
+        return dynamicProperties.getInteger(IEP_SERVER_ASYNC_MAX_CONNECTIONS, 1000);
+    }
+
+    private int getPoolSize() {
+        return Math.max(getMaxConnections(), consumers);
+    }
+
+    private boolean isHedgeEnabled() {
+        return dynamicProperties.getBoolean(IEP_SERVER_HEDGE_ENABLED, false);
+    }
+
+    private boolean isBatchEnabled() {
+        return dynamicProperties.getBoolean(IEP_SERVER_BATCH_ENABLED, false);
+    }
+
+    private String getBatchEndpoint() {
+        return dynamicProperties.getString(IEP_SERVER_BATCH_ENDPOINT, "/rs/event/batch");
+    }
+
+    private int getBatchSize() {
+        return Math.max(1, dynamicProperties.getInteger(IEP_SERVER_BATCH_SIZE, 50));
+    }
+
+    /**
+     * How long a consumer waits for the result of its event in a batch: the linger plus every client timeout.
+     * Past it the outcome is unknown, as on a socket timeout.
+     */
+    private long getBatchResultTimeout() {
+        return getBatchLinger() + getRequestTimeout() + getConnectionTimeout() + getSocketTimeout();
+    }
+
+    private long getBatchLinger() {
+        return dynamicProperties.getLong(IEP_SERVER_BATCH_LINGER, 5);
+    }
+
+    private String getCompression() {
+        return dynamicProperties.getString(IEP_SERVER_COMPRESSION, "none");
+    }
+
+    private int getCompressionThreshold() {
+        return dynamicProperties.getInteger(IEP_SERVER_COMPRESSION_THRESHOLD, 1024);
+    }
+
+    private int getCompressionLevel() {
+        return dynamicProperties.getInteger(IEP_SERVER_COMPRESSION_LEVEL, 1);
+    }
+
+    private String getTemplateMode() {
+        return dynamicProperties.getString(IEP_SERVER_TEMPLATE_MODE, "json");
     }
 
     private long getFileReloadInterval() {
@@ -248,10 +903,20 @@ public class IepRestClient implements PropertyListener {
 
         if (IEP_SERVER_CONNECTION_TIMEOUT.equals(name)
                 || IEP_SERVER_REQUEST_TIMEOUT.equals(name)
-                || IEP_SERVER_SOCKET_TIMEOUT.equals(name)
-                || IEP_SERVER_MAX_CONNECTIONS.equals(name)) {
-
-            updateHttpClientConfig();
+                || IEP_SERVER_SOCKET_TIMEOUT.equals(name)) {
+
+            updateTimeouts();
+        } else if (IEP_SERVER_MAX_CONNECTIONS.equals(name)) {
+            resizeConnectionPool(consumers);
+        } else if (IEP_SERVER_URL.equals(name)) {
+            PoolingHttpClientConnectionManager cm = connectionManager;
+            prewarmExecutor.execute(() -> prewarm(cm));
+        } else if (IEP_SERVER_ASYNC_MAX_CONNECTIONS.equals(name)) {
+            PoolingNHttpClientConnectionManager cm = asyncConnectionManager;
+            if (cm != null) {
+                cm.setMaxTotal(getAsyncMaxConnections());
+                cm.setDefaultMaxPerRoute(getAsyncMaxConnections());
+            }
         } else if (IEP_SERVER_ENABLE.equals(name)) {
             if (isIepServerEnable()) {
                 broker.start();
@@ -261,9 +926,74 @@ public class IepRestClient implements PropertyListener {
         }
     }
 
+    /**
+     * Creates the clients and switches the templates to them.
+     */
     private void updateHttpClientConfig() {
-        RestTemplate iepServerTmp = new RestTemplate(new HttpComponentsClientHttpRequestFactory(createHttpClient()));
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(createHttpClient());
+        factory.setBufferRequestBody(!requestStreaming);
+        applyTimeouts(factory);
+        RestTemplate iepServerTmp = new RestTemplate(factory);
         iepServerTmp.getMessageConverters().add(0, new StringHttpMessageConverter(Charset.forName("UTF-8")));
+        requestFactory = factory;
         iepServer = iepServerTmp;
+
+        if (isAsync()) {
+            HttpComponentsAsyncClientHttpRequestFactory asyncFactory = new HttpComponentsAsyncClientHttpRequestFactory(createHttpAsyncClient());
+            applyTimeouts(asyncFactory);
+            AsyncRestTemplate iepServerAsyncTmp = new AsyncRestTemplate(asyncFactory);
+            iepServerAsyncTmp.getMessageConverters().add(0, new StringHttpMessageConverter(Charset.forName("UTF-8")));
+            asyncRequestFactory = asyncFactory;
+            iepServerAsync = iepServerAsyncTmp;
+        }
+    }
+
+    private interface BodyWriter {
+
+        void write(OutputStream body) throws IOException;
+    }
+
+    private static class BodyBuffer extends ByteArrayOutputStream {
+
+        private BodyBuffer() {
+            super(4096);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+
+        private void writeTo(OutputStream out, boolean compress, String encoding, int level) throws IOException {
+            if (compress) {
+                BodyCompressor.compress(encoding, level, buf, count, out);
+            } else {
+                out.write(buf, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Marks the time the request got its connection, so the lease wait and the time on the wire can be told apart.
+     */
+    private static class TimedRequestExecutor extends HttpRequestExecutor {
+
+        @Override
+        public HttpResponse execute(HttpRequest request, HttpClientConnection connection, HttpContext context) throws IOException, HttpException {
+            CONNECTED_AT.get()[0] = System.nanoTime();
+            return super.execute(request, connection, context);
+        }
+    }
+
+    private static class LoadedTemplate {
+
+        private final EventTemplate template;
+        private final long lastModified;
+        private final long checked;
+
+        private LoadedTemplate(EventTemplate template, long lastModified, long checked) {
+            this.template = template;
+            this.lastModified = lastModified;
+            this.checked = checked;
+        }
     }
 }
@@ -8,9 +8,11 @@ import com.inspiring.surf.integration.util.DynamicProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 @Configuration
 public class IepRestConfig implements PropertyListener {
@@ -19,6 +21,7 @@ public class IepRestConfig implements PropertyListener {
     private static final Logger report = LoggerFactory.getLogger("monitor.reporter.log");
 
     private @Autowired DynamicProperties dynamicProperties;
+    private @Value("${iep.server.async.callback.threads:4}") int callbackThreads;
 
     @PostConstruct
     public void init() {
@@ -34,12 +37,32 @@ public class IepRestConfig implements PropertyListener {
         return executor;
     }
 
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolTaskExecutor iepServerCallbackExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("iep-server-callback-");
+        executor.setCorePoolSize(callbackThreads);
+        executor.setMaxPoolSize(callbackThreads);
+        return executor;
+    }
+
     @Scheduled(initialDelay = 60000, fixedDelay = 60000)
     public void threadPoolInfo() {
         report.info("Thread Pool: {}, Busy: {}, Current: {}, Max: {}", iepServerRestExecutor().getThreadPoolName(), iepServerRestExecutor().getActiveCount(),
                 iepServerRestExecutor().getPoolSize(), iepServerRestExecutor().getMaxPoolSize());
     }
 
+    public void resizeExecutor(int consumers) {
+        int poolSize = Math.max(getMaxConnections(), consumers);
+        if (poolSize > iepServerRestExecutor().getMaxPoolSize()) {
+            iepServerRestExecutor().setMaxPoolSize(poolSize);
+            iepServerRestExecutor().setCorePoolSize(poolSize);
+        } else if (poolSize < iepServerRestExecutor().getMaxPoolSize()) {
+            iepServerRestExecutor().setCorePoolSize(poolSize);
+            iepServerRestExecutor().setMaxPoolSize(poolSize);
+        }
+    }
+
     private int getMaxConnections() {
         return dynamicProperties.getInteger(IEP_SERVER_MAX_CONNECTIONS, 20);
     }
@@ -0,0 +1,35 @@
+package com.inspiring.surf.integration.rest;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResponseExtractor;
+
+/**
+ * Reads only the status code and the given headers of a response, without picking a message converter or
+ * deserializing the body. The request factory consumes what is left of the body when the response is closed,
+ * so the connection still goes back to the pool.
+ */
+public class StatusResponseExtractor implements ResponseExtractor<ResponseEntity<Void>> {
+
+    private final String[] headerNames;
+
+    public StatusResponseExtractor(String... headerNames) {
+        this.headerNames = headerNames;
+    }
+
+    @Override
+    public ResponseEntity<Void> extractData(ClientHttpResponse response) throws IOException {
+        HttpHeaders responseHeaders = response.getHeaders();
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : headerNames) {
+            String value = responseHeaders.getFirst(name);
+            if (value != null) {
+                headers.set(name, value);
+            }
+        }
+        return new ResponseEntity<>(headers, response.getStatusCode());
+    }
+}
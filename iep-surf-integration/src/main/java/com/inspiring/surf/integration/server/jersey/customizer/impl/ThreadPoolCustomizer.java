@@ -49,6 +49,13 @@ public class ThreadPoolCustomizer implements JettyServerCustomizer {
         threadPool.setIdleTimeout(getIdleTimeout());
     }
 
+    /**
+     * Returns the Jetty thread pool, or null before the server is customized.
+     */
+    public QueuedThreadPool getThreadPool() {
+        return server != null ? server.getBean(QueuedThreadPool.class) : null;
+    }
+
     private Integer getMinThreads() {
         return dynamicProperties.getInteger(CUSTOM_SERVER_THREAD_POOL_MIN_THREADS, 8);
     }
@@ -0,0 +1,28 @@
+package com.inspiring.surf.integration.server.jersey.mapper;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import com.inspiring.surf.integration.broker.BrokerBackpressureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+@Provider
+public class BrokerBackpressureExceptionMapper implements ExceptionMapper<BrokerBackpressureException> {
+
+    private static final Logger log = LoggerFactory.getLogger(BrokerBackpressureExceptionMapper.class);
+
+    @Override
+    public Response toResponse(BrokerBackpressureException e) {
+        log.warn("Request rejected: {}", e.getMessage());
+        return Response.status(SERVICE_UNAVAILABLE)
+                .header("Retry-After", e.getRetryAfterSeconds())
+                .type(TEXT_PLAIN)
+                .entity(e.getMessage())
+                .build();
+    }
+}
@@ -0,0 +1,27 @@
+package com.inspiring.surf.integration.server.jersey.mapper;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import com.inspiring.surf.integration.service.sms.SmsAdmissionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
+
+@Provider
+public class SmsAdmissionExceptionMapper implements ExceptionMapper<SmsAdmissionException> {
+
+    private static final Logger log = LoggerFactory.getLogger(SmsAdmissionExceptionMapper.class);
+
+    @Override
+    public Response toResponse(SmsAdmissionException e) {
+        log.debug("Request rejected: {}", e.getMessage());
+        return Response.status(e.getStatus())
+                .header("Retry-After", e.getRetryAfterSeconds())
+                .type(TEXT_PLAIN)
+                .entity(e.getMessage())
+                .build();
+    }
+}
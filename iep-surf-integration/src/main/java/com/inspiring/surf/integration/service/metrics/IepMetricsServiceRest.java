@@ -0,0 +1,26 @@
+package com.inspiring.surf.integration.service.metrics;
+
+import java.util.Map;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import com.inspiring.surf.integration.rest.IepLatencyMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+
+@Component
+@Path("metrics")
+public class IepMetricsServiceRest {
+
+    private @Autowired IepLatencyMetrics latencyMetrics;
+
+    @GET
+    @Path("iep/latency")
+    @Produces(APPLICATION_JSON)
+    public Map<String, Map<String, Object>> iepLatency() {
+        return latencyMetrics.getPercentiles();
+    }
+}
@@ -0,0 +1,222 @@
+package com.inspiring.surf.integration.service.sms;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Reads SMS records one at a time from a bulk request body, as NDJSON, a JSON array or CSV with a header line.
+ * Field names are lower cased, so records use the same names as the form parameters in any case.
+ */
+public abstract class BulkRecordReader implements Closeable {
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    public static final String TEXT_CSV = "text/csv";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    protected final BufferedReader reader;
+
+    protected BulkRecordReader(InputStream in) {
+        this.reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+    }
+
+    public static BulkRecordReader create(MediaType type, InputStream in) throws IOException {
+        String subtype = type != null ? type.getType() + "/" + type.getSubtype() : "";
+        if (APPLICATION_NDJSON.equalsIgnoreCase(subtype)) {
+            return new NdjsonReader(in);
+        } else if (TEXT_CSV.equalsIgnoreCase(subtype)) {
+            return new CsvReader(in);
+        } else if (MediaType.APPLICATION_JSON.equalsIgnoreCase(subtype)) {
+            return new JsonArrayReader(in);
+        }
+        throw new IllegalArgumentException("Bulk content type not supported: " + subtype);
+    }
+
+    /**
+     * Returns the next record, or null at the end of the body. A malformed record throws
+     * {@link InvalidRecordException} and reading can go on with the next one; any other exception ends the body.
+     */
+    public abstract Map<String, String> next() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static Map<String, String> toRecord(JsonNode node) throws InvalidRecordException {
+        if (node == null || !node.isObject()) {
+            throw new InvalidRecordException("Record is not a JSON object");
+        }
+        Map<String, String> record = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            record.put(field.getKey().toLowerCase(), field.getValue().isNull() ? null : field.getValue().asText());
+        }
+        return record;
+    }
+
+    public static class InvalidRecordException extends IOException {
+
+        private static final long serialVersionUID = -4205113386734217395L;
+
+        public InvalidRecordException(String message) {
+            super(message);
+        }
+    }
+
+    private static class NdjsonReader extends BulkRecordReader {
+
+        private NdjsonReader(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (isBlank(line));
+
+            try {
+                return toRecord(mapper.readTree(line));
+            } catch (JsonProcessingException e) {
+                throw new InvalidRecordException("Invalid JSON: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private static class JsonArrayReader extends BulkRecordReader {
+
+        private final JsonParser parser;
+
+        private JsonArrayReader(InputStream in) throws IOException {
+            super(in);
+            parser = new JsonFactory(mapper).createParser(reader);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Bulk body is not a JSON array");
+            }
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return null;
+            }
+            JsonNode node = parser.readValueAsTree();
+            return toRecord(node);
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+            super.close();
+        }
+    }
+
+    /**
+     * RFC 4180 CSV: quoted fields may hold commas, line breaks and doubled quotes.
+     */
+    private static class CsvReader extends BulkRecordReader {
+
+        private final List<String> header;
+        private final StringBuilder field = new StringBuilder();
+
+        private CsvReader(InputStream in) throws IOException {
+            super(in);
+            List<String> names = readRow();
+            if (names == null) {
+                throw new IOException("CSV body without header");
+            }
+            header = new ArrayList<>(names.size());
+            for (String name : names) {
+                header.add(name.trim().toLowerCase());
+            }
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            List<String> row;
+            do {
+                row = readRow();
+                if (row == null) {
+                    return null;
+                }
+            } while (row.size() == 1 && row.get(0).isEmpty());
+
+            if (row.size() != header.size()) {
+                throw new InvalidRecordException("Expected " + header.size() + " columns, found " + row.size());
+            }
+            Map<String, String> record = new HashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                record.put(header.get(i), row.get(i));
+            }
+            return record;
+        }
+
+        private List<String> readRow() throws IOException {
+            int c = reader.read();
+            if (c < 0) {
+                return null;
+            }
+
+            List<String> row = new ArrayList<>();
+            boolean quoted = false;
+            field.setLength(0);
+            while (c >= 0) {
+                if (quoted) {
+                    if (c == '"') {
+                        reader.mark(1);
+                        int next = reader.read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            reader.reset();
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = reader.read();
+            }
+            if (quoted) {
+                throw new IOException("Unterminated quoted CSV field");
+            }
+            row.add(field.toString());
+            return row;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.inspiring.surf.integration.service.sms;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.inspiring.surf.integration.broker.QueueStats;
+import com.inspiring.surf.integration.broker.QueueStatsCollector;
+import com.inspiring.surf.integration.server.jersey.customizer.impl.ThreadPoolCustomizer;
+import com.inspiring.surf.integration.util.DynamicProperties;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Sheds SMS ingress when the pipeline is overloaded. Every second the pressure of each queue is computed from
+ * the publish confirmation latency (EWMA, decaying while nothing is published), the queue depth of the management
+ * stats and the Jetty thread pool usage: each signal scales from 0 at its start threshold to 1 at its max
+ * threshold and the highest one wins.
+ * <p>
+ * In probabilistic mode a request is rejected with a probability equal to the pressure; in priority mode a
+ * queue is rejected as a whole once the pressure reaches its shed level, so lower priority traffic goes first.
+ * A backlog in the queue answers 429, a slow broker or a saturated server 503, both with a Retry-After that
+ * grows with the pressure and is spread so the gateway retries do not come back at once.
+ */
+@Component
+public class SmsAdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(SmsAdmissionController.class);
+    private static final Logger report = LoggerFactory.getLogger("monitor.reporter.log");
+
+    private static final String SMS_ADMISSION_ENABLED = "sms.admission.enabled";
+    private static final String SMS_ADMISSION_MODE = "sms.admission.mode";
+    private static final String SMS_ADMISSION_LATENCY_START = "sms.admission.latency.start";
+    private static final String SMS_ADMISSION_LATENCY_MAX = "sms.admission.latency.max";
+    private static final String SMS_ADMISSION_QUEUE_DEPTH_START = "sms.admission.queue.depth.start";
+    private static final String SMS_ADMISSION_QUEUE_DEPTH_MAX = "sms.admission.queue.depth.max";
+    private static final String SMS_ADMISSION_QUEUE_STATS_MAX_AGE = "sms.admission.queue.stats.max.age";
+    private static final String SMS_ADMISSION_THREADS_START = "sms.admission.threads.start";
+    private static final String SMS_ADMISSION_THREADS_MAX = "sms.admission.threads.max";
+    private static final String SMS_ADMISSION_PRIORITY = "sms.admission.priority.";
+    private static final String SMS_ADMISSION_RETRY_AFTER = "sms.admission.retry.after";
+    private static final String SMS_ADMISSION_RETRY_AFTER_MAX = "sms.admission.retry.after.max";
+    private static final String MODE_PRIORITY = "priority";
+    private static final double EWMA_WEIGHT = 0.3;
+
+    public static final int STATUS_TOO_MANY_REQUESTS = 429;
+    public static final int STATUS_SERVICE_UNAVAILABLE = 503;
+
+    private @Autowired DynamicProperties dynamicProperties;
+    private @Autowired QueueStatsCollector queueStats;
+    private @Autowired(required = false) ThreadPoolCustomizer threadPoolCustomizer;
+
+    private final LongAdder publishNanos = new LongAdder();
+    private final LongAdder publishCount = new LongAdder();
+    private final Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+    private volatile double publishLatency;
+    private volatile Map<String, Pressure> pressures = Collections.emptyMap();
+
+    /**
+     * Throws {@link SmsAdmissionException} when the request to the queue is shed.
+     */
+    public void admit(String queue) {
+        Pressure pressure = pressures.get(queue);
+        if (pressure == null || !pressure.rejects()) {
+            return;
+        }
+        rejected.computeIfAbsent(queue, k -> new LongAdder()).increment();
+        throw new SmsAdmissionException("Request shed for queue: " + queue + ", cause: " + pressure.cause, pressure.status, pressure.retryAfter());
+    }
+
+    /**
+     * Records the time from the publish to its confirmation, given the {@link System#nanoTime()} of the publish.
+     */
+    public void published(long startNanos) {
+        publishNanos.add(System.nanoTime() - startNanos);
+        publishCount.increment();
+    }
+
+    @Scheduled(initialDelay = 1000, fixedDelay = 1000)
+    public void update() {
+        long count = publishCount.sumThenReset();
+        long nanos = publishNanos.sumThenReset();
+        if (count > 0) {
+            double latency = NANOSECONDS.toMicros(nanos / count) / 1000.0;
+            publishLatency = publishLatency == 0 ? latency : EWMA_WEIGHT * latency + (1 - EWMA_WEIGHT) * publishLatency;
+        } else {
+            // nothing published, possibly because it is all shed: decay so the latency shedding releases
+            publishLatency = (1 - EWMA_WEIGHT) * publishLatency;
+        }
+
+        if (!isEnabled()) {
+            pressures = Collections.emptyMap();
+            return;
+        }
+
+        double latencyPressure = scale(publishLatency, getLatencyStart(), getLatencyMax());
+        double threadsPressure = scale(getThreadsUsage(), getThreadsStart(), getThreadsMax());
+        Map<String, Pressure> updated = new HashMap<>();
+        for (String queue : new String[]{SmsInputServiceRest.queueNameResponse, SmsInputServiceRest.queueNameStatus}) {
+            Pressure pressure = new Pressure(latencyPressure, STATUS_SERVICE_UNAVAILABLE, "publish latency");
+            pressure = pressure.max(threadsPressure, STATUS_SERVICE_UNAVAILABLE, "server threads");
+            pressure = pressure.max(scale(getQueueDepth(queue), getQueueDepthStart(), getQueueDepthMax()), STATUS_TOO_MANY_REQUESTS, "queue depth");
+            if (pressure.value > 0) {
+                pressure.shedLevel = isPriorityMode() ? getPriority(queue) / 100.0 : -1;
+                pressure.retryAfter = getRetryAfter();
+                pressure.retryAfterMax = Math.max(pressure.retryAfter, getRetryAfterMax());
+                updated.put(queue, pressure);
+            }
+        }
+        if (!updated.isEmpty() || !pressures.isEmpty()) {
+            log.debug("SMS admission pressure: {}", updated);
+        }
+        pressures = updated;
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void admissionInfo() {
+        if (!isEnabled()) {
+            return;
+        }
+        for (String queue : new String[]{SmsInputServiceRest.queueNameResponse, SmsInputServiceRest.queueNameStatus}) {
+            Pressure pressure = pressures.get(queue);
+            LongAdder shed = rejected.get(queue);
+            report.info("SMS Admission '{}': Pressure: {}, Cause: {}, Shed: {}, Publish latency: {} ms", queue,
+                    pressure != null ? String.format("%.2f", pressure.value) : "0.00", pressure != null ? pressure.cause : "-",
+                    shed != null ? shed.sumThenReset() : 0, String.format("%.1f", publishLatency));
+        }
+    }
+
+    private double getThreadsUsage() {
+        QueuedThreadPool threadPool = threadPoolCustomizer != null ? threadPoolCustomizer.getThreadPool() : null;
+        if (threadPool == null || threadPool.getMaxThreads() <= 0) {
+            return 0;
+        }
+        return 100.0 * (threadPool.getBusyThreads() + threadPool.getQueueSize()) / threadPool.getMaxThreads();
+    }
+
+    private long getQueueDepth(String queue) {
+        if (!queueStats.isEnabled() || queueStats.getSnapshot().getAge() > getQueueStatsMaxAge()) {
+            return 0;
+        }
+        QueueStats stats = queueStats.getQueueStats(queue);
+        return stats != null ? stats.getMessagesReady() : 0;
+    }
+
+    private static double scale(double value, double start, double max) {
+        if (value <= start) {
+            return 0;
+        }
+        if (value >= max || max <= start) {
+            return 1;
+        }
+        return (value - start) / (max - start);
+    }
+
+    private boolean isEnabled() {
+        return dynamicProperties.getBoolean(SMS_ADMISSION_ENABLED, false);
+    }
+
+    private boolean isPriorityMode() {
+        return MODE_PRIORITY.equalsIgnoreCase(dynamicProperties.getString(SMS_ADMISSION_MODE, "probabilistic"));
+    }
+
+    private long getLatencyStart() {
+        return dynamicProperties.getLong(SMS_ADMISSION_LATENCY_START, 200);
+    }
+
+    private long getLatencyMax() {
+        return dynamicProperties.getLong(SMS_ADMISSION_LATENCY_MAX, 2000);
+    }
+
+    private long getQueueDepthStart() {
+        return dynamicProperties.getLong(SMS_ADMISSION_QUEUE_DEPTH_START, 100000);
+    }
+
+    private long getQueueDepthMax() {
+        return dynamicProperties.getLong(SMS_ADMISSION_QUEUE_DEPTH_MAX, 1000000);
+    }
+
+    private long getQueueStatsMaxAge() {
+        return dynamicProperties.getLong(SMS_ADMISSION_QUEUE_STATS_MAX_AGE, 30000);
+    }
+
+    private int getThreadsStart() {
+        return dynamicProperties.getInteger(SMS_ADMISSION_THREADS_START, 80);
+    }
+
+    private int getThreadsMax() {
+        return dynamicProperties.getInteger(SMS_ADMISSION_THREADS_MAX, 100);
+    }
+
+    private int getPriority(String queue) {
+        return dynamicProperties.getInteger(SMS_ADMISSION_PRIORITY + queue, SmsInputServiceRest.queueNameStatus.equals(queue) ? 50 : 90);
+    }
+
+    private long getRetryAfter() {
+        return dynamicProperties.getLong(SMS_ADMISSION_RETRY_AFTER, 1);
+    }
+
+    private long getRetryAfterMax() {
+        return dynamicProperties.getLong(SMS_ADMISSION_RETRY_AFTER_MAX, 30);
+    }
+
+    private static class Pressure {
+
+        private final double value;
+        private final int status;
+        private final String cause;
+        private double shedLevel;
+        private long retryAfter;
+        private long retryAfterMax;
+
+        private Pressure(double value, int status, String cause) {
+            this.value = value;
+            this.status = status;
+            this.cause = cause;
+        }
+
+        private Pressure max(double value, int status, String cause) {
+            return value > this.value ? new Pressure(value, status, cause) : this;
+        }
+
+        private boolean rejects() {
+            if (shedLevel >= 0) {
+                return value >= shedLevel;
+            }
+            return ThreadLocalRandom.current().nextDouble() < value;
+        }
+
+        /**
+         * From the base Retry-After up to the pressure share of the max, picked at random in between.
+         */
+        private long retryAfter() {
+            long spread = (long) (value * (retryAfterMax - retryAfter));
+            return retryAfter + (spread > 0 ? ThreadLocalRandom.current().nextLong(spread + 1) : 0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f (%s)", value, cause);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.inspiring.surf.integration.service.sms;
+
+import com.inspiring.surf.integration.broker.BrokerBackpressureException;
+
+/**
+ * Request shed by the {@link SmsAdmissionController}, answered with its status (429 or 503) and Retry-After.
+ */
+public class SmsAdmissionException extends BrokerBackpressureException {
+
+    private final int status;
+
+    public SmsAdmissionException(String msg, int status, long retryAfterSeconds) {
+        super(msg, retryAfterSeconds);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
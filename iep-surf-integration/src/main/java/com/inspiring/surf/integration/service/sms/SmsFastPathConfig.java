@@ -0,0 +1,56 @@
+package com.inspiring.surf.integration.service.sms;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+
+import com.inspiring.surf.integration.broker.BrokerMessageConfig;
+import com.inspiring.surf.integration.util.AuditWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.filter.OrderedHiddenHttpMethodFilter;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Mounts {@link SmsFastPathServlet} on the SMS callback paths. Exact servlet mappings take precedence over the
+ * Jersey <code>/v1/*</code> mapping, so the JAX-RS resource keeps serving them when the fast path is disabled.
+ */
+@Configuration
+@ConditionalOnProperty(name = "custom.server.fast.path.enabled", havingValue = "true")
+public class SmsFastPathConfig {
+
+    private static final List<String> PATHS = Arrays.asList("/v1/sms/response", "/v1/sms/status");
+
+    private @Autowired BrokerMessageConfig broker;
+    private @Autowired AuditWriter audit;
+    private @Autowired SmsAdmissionController admission;
+    private @Value("${sms.publish.timeout:5000}") long publishTimeout;
+    private @Value("${sms.publish.retry.after:1}") long publishRetryAfter;
+    private @Value("${custom.server.form.max.content.bytes:200000}") int maxContentBytes;
+
+    @Bean
+    public ServletRegistrationBean smsFastPathServlet() {
+        ServletRegistrationBean registration = new ServletRegistrationBean(
+                new SmsFastPathServlet(broker, audit, admission, publishTimeout, publishRetryAfter, maxContentBytes), PATHS.toArray(new String[PATHS.size()]));
+        registration.setName("smsFastPath");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+
+    /**
+     * Replaces the MVC filter of the same name, which reads the <code>_method</code> parameter of every POST and
+     * so makes the container consume the urlencoded body before the fast path servlet gets to read it.
+     */
+    @Bean
+    public OrderedHiddenHttpMethodFilter hiddenHttpMethodFilter() {
+        return new OrderedHiddenHttpMethodFilter() {
+            @Override
+            protected boolean shouldNotFilter(HttpServletRequest request) {
+                return PATHS.contains(request.getServletPath());
+            }
+        };
+    }
+}
@@ -0,0 +1,235 @@
+package com.inspiring.surf.integration.service.sms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.inspiring.surf.integration.broker.BrokerBackpressureException;
+import com.inspiring.surf.integration.broker.BrokerMessageConfig;
+import com.inspiring.surf.integration.util.AuditWriter;
+import com.inspiring.surf.integration.util.FormDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.createResponseMessage;
+import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.createStatusMessage;
+import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.normalizeMsisdn;
+import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.queueNameResponse;
+import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.queueNameStatus;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Raw servlet for the SMS callbacks, mounted on the same paths as {@link SmsInputServiceRest} when the fast
+ * path is enabled. The urlencoded form is read into a reusable per thread buffer and only the used fields are
+ * decoded, skipping Jersey resource matching and parameter injection. Messages, audit and replies are the
+ * same as the resource, including the reply sent from the publish confirmation.
+ */
+public class SmsFastPathServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 3620483615329218374L;
+
+    private static final Logger log = LoggerFactory.getLogger(SmsFastPathServlet.class);
+
+    private static final String STATUS_PATH = "/status";
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    private static final int MAX_BUFFER = 64 * 1024;
+    private static final byte[] OK = "OK".getBytes(UTF_8);
+
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    private final FormDecoder responseForm = new FormDecoder("celular", "mensagem", "lashortnumber", "seunum", "datastatus");
+    private final FormDecoder statusForm = new FormDecoder("celular", "descricaostatus", "status", "SeuNum", "datastatus");
+
+    private final transient BrokerMessageConfig broker;
+    private final transient AuditWriter audit;
+    private final transient SmsAdmissionController admission;
+    private final long publishTimeout;
+    private final long publishRetryAfter;
+    private final int maxContentBytes;
+
+    public SmsFastPathServlet(BrokerMessageConfig broker, AuditWriter audit, SmsAdmissionController admission, long publishTimeout, long publishRetryAfter, int maxContentBytes) {
+        this.broker = broker;
+        this.audit = audit;
+        this.admission = admission;
+        this.publishTimeout = publishTimeout;
+        this.publishRetryAfter = publishRetryAfter;
+        this.maxContentBytes = maxContentBytes;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean status = request.getServletPath().endsWith(STATUS_PATH);
+        try {
+            admission.admit(status ? queueNameStatus : queueNameResponse);
+        } catch (SmsAdmissionException e) {
+            log.debug("Request rejected: {}", e.getMessage());
+            response.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            response.sendError(e.getStatus(), e.getMessage());
+            return;
+        }
+        String[] fields = readForm(request, status ? statusForm : responseForm);
+        if (fields == null) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+
+        String msisdn = normalizeMsisdn(fields[0]);
+        String queue;
+        Map<String, Object> message;
+        if (status) {
+            log.debug("SMS Status -  Celular: {}, Status {}, SeuNum: {}, Desc: {}, Data: {}", msisdn, fields[2], fields[3], fields[1], fields[4]);
+            queue = queueNameStatus;
+            message = createStatusMessage(msisdn, fields[1], fields[2], fields[3], fields[4]);
+        } else {
+            log.debug("SMS Response - Celular: {}, ShortNumber {}, SeuNum: {}, Texto: {}, Data: {}", msisdn, fields[2], fields[3], fields[1], fields[4]);
+            queue = queueNameResponse;
+            message = createResponseMessage(msisdn, fields[1], fields[2], fields[3], fields[4]);
+        }
+        audit.request(queueNameResponse, message);
+
+        publish(request, queue, message, status);
+    }
+
+    /**
+     * Returns the decoded fields, or null when the body is larger than the form limit.
+     */
+    private String[] readForm(HttpServletRequest request, FormDecoder form) throws IOException {
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.regionMatches(true, 0, FORM_CONTENT_TYPE, 0, FORM_CONTENT_TYPE.length())) {
+            return form.decode(new byte[0], 0);
+        }
+
+        byte[] buffer = buffers.get();
+        int length = 0;
+        InputStream in = request.getInputStream();
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+            length += read;
+            if (length == buffer.length) {
+                if (length >= maxContentBytes) {
+                    return null;
+                }
+                byte[] larger = new byte[Math.min(buffer.length * 2, maxContentBytes + 1)];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+                if (buffer.length <= MAX_BUFFER) {
+                    buffers.set(buffer);
+                }
+            }
+        }
+        if (length > maxContentBytes) {
+            return null;
+        }
+        if (length == 0) {
+            // a filter asked for a parameter before this servlet, so the container consumed the body to parse it
+            return form.decode(request.getParameterMap());
+        }
+        return form.decode(buffer, length, getCharset(request));
+    }
+
+    /**
+     * The charset of the request, UTF-8 when it is missing or not supported.
+     */
+    private static Charset getCharset(HttpServletRequest request) {
+        String encoding = request.getCharacterEncoding();
+        try {
+            if (encoding != null && Charset.isSupported(encoding)) {
+                return Charset.forName(encoding);
+            }
+        } catch (IllegalCharsetNameException e) {
+            log.debug("Invalid request charset: {}", encoding);
+        }
+        return UTF_8;
+    }
+
+    private void publish(HttpServletRequest request, String queue, Map<String, Object> message, boolean status) {
+        AsyncContext async = request.startAsync();
+        async.setTimeout(publishTimeout);
+        AtomicBoolean replied = new AtomicBoolean(false);
+        AtomicReference<CompletableFuture<Void>> publishing = new AtomicReference<>();
+        async.addListener(new AsyncListener() {
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                reply(async, replied, status, new BrokerBackpressureException("Timeout waiting publish confirmation for queue: " + queue, publishRetryAfter));
+                cancel(publishing.get());
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<Void> published = broker.sendMessageAsync(queue, message);
+            publishing.set(published);
+            if (replied.get()) {
+                cancel(published);
+            }
+            published.whenComplete((v, e) -> {
+                admission.published(start);
+                reply(async, replied, status, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            });
+        } catch (RuntimeException e) {
+            reply(async, replied, status, e);
+        }
+    }
+
+    /**
+     * Cancels the publish of a request that timed out, releasing its confirm window slot.
+     */
+    private static void cancel(CompletableFuture<Void> published) {
+        if (published != null) {
+            published.cancel(false);
+        }
+    }
+
+    private void reply(AsyncContext async, AtomicBoolean replied, boolean status, Throwable e) {
+        if (!replied.compareAndSet(false, true)) {
+            return;
+        }
+        HttpServletResponse response = (HttpServletResponse) async.getResponse();
+        try {
+            if (e == null) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                if (!status) {
+                    response.setContentType("text/plain");
+                    response.setContentLength(OK.length);
+                    response.getOutputStream().write(OK);
+                }
+            } else if (e instanceof BrokerBackpressureException) {
+                log.warn("Request rejected: {}", e.getMessage());
+                response.setHeader("Retry-After", String.valueOf(((BrokerBackpressureException) e).getRetryAfterSeconds()));
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            } else {
+                log.error("Error publishing SMS: {}", e.getMessage());
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        } catch (IOException | IllegalStateException ex) {
+            log.warn("Error writing SMS reply, cause: {}", ex.getMessage());
+        } finally {
+            async.complete();
+        }
+    }
+}
@@ -1,17 +1,36 @@
 package com.inspiring.surf.integration.service.sms;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.*;
 
+import com.inspiring.surf.integration.broker.BrokerBackpressureException;
 import com.inspiring.surf.integration.broker.BrokerMessageConfig;
-import com.inspiring.surf.integration.util.MapUtils;
+import com.inspiring.surf.integration.util.AuditWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import static com.inspiring.surf.integration.service.sms.BulkRecordReader.APPLICATION_NDJSON;
+import static com.inspiring.surf.integration.service.sms.BulkRecordReader.TEXT_CSV;
 import static com.inspiring.surf.integration.util.MapUtils.createMap;
 import static javax.ws.rs.core.MediaType.*;
 import static org.apache.commons.collections4.CollectionUtils.isNotEmpty;
@@ -22,16 +41,22 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 public class SmsInputServiceRest {
 
     private static final Logger log = LoggerFactory.getLogger(SmsInputServiceRest.class);
-    private static final Logger audit = LoggerFactory.getLogger("integration.audit.request");
     public static final String queueNameResponse = "surf.sms.response";
     public static final String queueNameStatus = "surf.sms.status";
     private @Autowired BrokerMessageConfig broker;
+    private @Autowired AuditWriter audit;
+    private @Autowired SmsAdmissionController admission;
+    private @Value("${sms.publish.timeout:5000}") long publishTimeout;
+    private @Value("${sms.publish.retry.after:1}") long publishRetryAfter;
+    private @Value("${sms.bulk.max.in.flight:1000}") int bulkMaxInFlight;
+    private @Value("${sms.bulk.timeout:30000}") long bulkTimeout;
 
     @POST
     @Path("response")
     @Produces({TEXT_PLAIN})
     @Consumes(WILDCARD)
-    public Response smsResponse(@Context HttpHeaders headers,
+    public void smsResponse(@Suspended AsyncResponse asyncResponse,
+                            @Context HttpHeaders headers,
                              @Context UriInfo uriInfo,
                                 @FormParam("celular") String msisdn,
                                 @FormParam("mensagem") String text,
@@ -39,19 +64,18 @@ public class SmsInputServiceRest {
                                 @FormParam("seunum") String correlationId,
                                 @FormParam("datastatus") String date) {
 
-        if (isNotBlank(msisdn)) {
-            msisdn = msisdn.substring(2);
+        if (!admit(asyncResponse, queueNameResponse)) {
+            return;
         }
+        msisdn = normalizeMsisdn(msisdn);
 
-        log.info("SMS Response - Celular: {}, ShortNumber {}, SeuNum: {}, Texto: {}, Data: {}", msisdn, shortNumber, correlationId, text, date);
-
-        Map<String, Object> request = createMap("text", text, "msisdn", msisdn, "shortNumber", shortNumber, "correlationId", correlationId, "date", date);
+        log.debug("SMS Response - Celular: {}, ShortNumber {}, SeuNum: {}, Texto: {}, Data: {}", msisdn, shortNumber, correlationId, text, date);
 
-        audit.info("type={}|{}", queueNameResponse, MapUtils.toString(request, "|"));
+        Map<String, Object> request = createResponseMessage(msisdn, text, shortNumber, correlationId, date);
 
-        broker.sendMessage(queueNameResponse, request);
+        audit.request(queueNameResponse, request);
 
-        return Response.ok("OK").build();
+        publish(asyncResponse, queueNameResponse, request, () -> Response.ok("OK").build());
     }
 
 
@@ -59,7 +83,8 @@ public class SmsInputServiceRest {
     @Path("status")
     @Produces(TEXT_PLAIN)
     @Consumes(WILDCARD)
-    public Response smsStatusWithForm(@Context HttpHeaders headers,
+    public void smsStatusWithForm(@Suspended AsyncResponse asyncResponse,
+                                  @Context HttpHeaders headers,
                               @Context UriInfo uriInfo,
                               @FormParam("celular") String msisdn,
                               @FormParam("descricaostatus") String text,
@@ -67,20 +92,181 @@ public class SmsInputServiceRest {
                               @FormParam("SeuNum") String correlationId,
                               @FormParam("datastatus") String date) {
 
-        if (isNotBlank(msisdn)) {
-            msisdn = msisdn.substring(2);
+        if (!admit(asyncResponse, queueNameStatus)) {
+            return;
+        }
+        msisdn = normalizeMsisdn(msisdn);
+
+        log.debug("SMS Status -  Celular: {}, Status {}, SeuNum: {}, Desc: {}, Data: {}", msisdn, status, correlationId, text, date);
+
+
+        Map<String, Object> request = createStatusMessage(msisdn, text, status, correlationId, date);
+
+        audit.request(queueNameResponse, request);
+
+        publish(asyncResponse, queueNameStatus, request, () -> Response.ok().build());
+    }
+
+    private boolean admit(AsyncResponse asyncResponse, String queue) {
+        try {
+            admission.admit(queue);
+            return true;
+        } catch (SmsAdmissionException e) {
+            asyncResponse.resume(e);
+            return false;
+        }
+    }
+
+    /**
+     * Publishes the message and releases the Jetty thread; the reply is sent from the publish confirmation.
+     * When the broker does not confirm within the timeout, or the publish pool or confirm window is full, the
+     * request gets a 503 with Retry-After. A timed out publish is cancelled, but the message may still reach the
+     * queue: a client retrying on 503 gets at least once delivery.
+     */
+    private void publish(AsyncResponse asyncResponse, String queue, Map<String, Object> request, Supplier<Response> response) {
+        AtomicReference<CompletableFuture<Void>> publishing = new AtomicReference<>();
+        asyncResponse.setTimeout(publishTimeout, TimeUnit.MILLISECONDS);
+        asyncResponse.setTimeoutHandler(timedOut -> {
+            timedOut.resume(new BrokerBackpressureException("Timeout waiting publish confirmation for queue: " + queue, publishRetryAfter));
+            cancel(publishing.get());
+        });
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> published;
+        try {
+            published = broker.sendMessageAsync(queue, request);
+        } catch (RuntimeException e) {
+            asyncResponse.resume(e);
+            return;
+        }
+        publishing.set(published);
+        if (asyncResponse.isDone()) {
+            cancel(published);
+        }
+        published.whenComplete((v, e) -> {
+            admission.published(start);
+            if (e == null) {
+                asyncResponse.resume(response.get());
+            } else {
+                asyncResponse.resume(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+
+    /**
+     * Accepts thousands of SMS responses in one request, as NDJSON, a JSON array or CSV with the form parameter
+     * names as fields or header. Records are parsed and published as they are read, the response has the
+     * accepted and rejected counts and the reason of each rejected record.
+     */
+    @POST
+    @Path("response/bulk")
+    @Produces(APPLICATION_JSON)
+    @Consumes({APPLICATION_NDJSON, APPLICATION_JSON, TEXT_CSV})
+    public Response smsResponseBulk(@Context HttpHeaders headers, InputStream body) {
+        return bulk(headers, body, queueNameResponse, record -> createResponseMessage(normalizeMsisdn(record.get("celular")),
+                record.get("mensagem"), record.get("lashortnumber"), record.get("seunum"), record.get("datastatus")));
+    }
+
+    @POST
+    @Path("status/bulk")
+    @Produces(APPLICATION_JSON)
+    @Consumes({APPLICATION_NDJSON, APPLICATION_JSON, TEXT_CSV})
+    public Response smsStatusBulk(@Context HttpHeaders headers, InputStream body) {
+        return bulk(headers, body, queueNameStatus, record -> createStatusMessage(normalizeMsisdn(record.get("celular")),
+                record.get("descricaostatus"), record.get("status"), record.get("seunum"), record.get("datastatus")));
+    }
+
+    private Response bulk(HttpHeaders headers, InputStream body, String queue, Function<Map<String, String>, Map<String, Object>> toMessage) {
+        admission.admit(queue);
+
+        int records = 0;
+        int accepted = 0;
+        List<Map<String, Object>> rejected = new ArrayList<>();
+        Deque<PendingRecord> pending = new ArrayDeque<>();
+        String error = null;
+
+        try (BulkRecordReader reader = BulkRecordReader.create(headers.getMediaType(), body)) {
+            while (true) {
+                int index = records;
+                Map<String, String> record;
+                try {
+                    record = reader.next();
+                } catch (BulkRecordReader.InvalidRecordException e) {
+                    records++;
+                    rejected.add(createMap("record", index, "error", e.getMessage()));
+                    continue;
+                }
+                if (record == null) {
+                    break;
+                }
+                records++;
+
+                try {
+                    Map<String, Object> request = toMessage.apply(record);
+                    log.debug("SMS Bulk - Queue: {}, Record: {}", queue, request);
+                    audit.request(queueNameResponse, request);
+                    long start = System.nanoTime();
+                    CompletableFuture<Void> published = broker.sendMessageAsync(queue, request, true);
+                    published.whenComplete((v, e) -> admission.published(start));
+                    pending.add(new PendingRecord(index, published));
+                } catch (RuntimeException e) {
+                    rejected.add(createMap("record", index, "error", e.getMessage()));
+                }
+                if (pending.size() >= bulkMaxInFlight) {
+                    accepted += await(pending.poll(), rejected);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("SMS Bulk - Queue: {}, body not read after {} records, cause: {}", queue, records, e.getMessage());
+            error = e.getMessage();
+        }
+        while (!pending.isEmpty()) {
+            accepted += await(pending.poll(), rejected);
         }
 
-        log.info("SMS Status -  Celular: {}, Status {}, SeuNum: {}, Desc: {}, Data: {}", msisdn, status, correlationId, text, date);
+        log.info("SMS Bulk - Queue: {}, Records: {}, Accepted: {}, Rejected: {}", queue, records, accepted, rejected.size());
+        Map<String, Object> summary = createMap("records", records, "accepted", accepted, "rejected", rejected.size(), "errors", rejected);
+        if (error != null) {
+            summary.put("error", error);
+        }
+        return Response.ok(summary).build();
+    }
 
+    private int await(PendingRecord pending, List<Map<String, Object>> rejected) {
+        try {
+            pending.published.get(bulkTimeout, TimeUnit.MILLISECONDS);
+            return 1;
+        } catch (ExecutionException e) {
+            rejected.add(createMap("record", pending.index, "error", e.getCause().getMessage()));
+        } catch (TimeoutException e) {
+            pending.published.cancel(false);
+            rejected.add(createMap("record", pending.index, "error", "Publish timeout"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.add(createMap("record", pending.index, "error", "Interrupted"));
+        }
+        return 0;
+    }
 
-        Map<String, Object> request = createMap("text", text, "msisdn", msisdn, "status", status, "text", text, "correlationId", correlationId, "date", date);
+    private static void cancel(CompletableFuture<Void> published) {
+        if (published != null) {
+            published.cancel(false);
+        }
+    }
 
-        audit.info("type={}|{}", queueNameResponse, MapUtils.toString(request, "|"));
+    static Map<String, Object> createResponseMessage(String msisdn, String text, String shortNumber, String correlationId, String date) {
+        return createMap("text", text, "msisdn", msisdn, "shortNumber", shortNumber, "correlationId", correlationId, "date", date);
+    }
 
-        broker.sendMessage(queueNameStatus, request);
+    static Map<String, Object> createStatusMessage(String msisdn, String text, String status, String correlationId, String date) {
+        return createMap("text", text, "msisdn", msisdn, "status", status, "text", text, "correlationId", correlationId, "date", date);
+    }
 
-        return Response.ok().build();
+    static String normalizeMsisdn(String msisdn) {
+        if (isNotBlank(msisdn)) {
+            return msisdn.substring(2);
+        }
+        return msisdn;
     }
 
     private String getParameterValue(String name, MultivaluedMap<String, String> queryParameters) {
@@ -94,5 +280,16 @@ public class SmsInputServiceRest {
         }
         return null;
     }
+
+    private static class PendingRecord {
+
+        private final int index;
+        private final CompletableFuture<Void> published;
+
+        private PendingRecord(int index, CompletableFuture<Void> published) {
+            this.index = index;
+            this.published = published;
+        }
+    }
 }
 
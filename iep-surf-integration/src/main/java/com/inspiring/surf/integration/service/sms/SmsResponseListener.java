@@ -1,6 +1,10 @@
 package com.inspiring.surf.integration.service.sms;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import javax.annotation.PostConstruct;
 
 import com.inspiring.surf.integration.broker.BrokerMessageConfig;
@@ -8,8 +12,8 @@ import com.inspiring.surf.integration.broker.BrokerRetryException;
 import com.inspiring.surf.integration.broker.MessageHandler;
 import com.inspiring.surf.integration.exceptions.SendToAuditException;
 import com.inspiring.surf.integration.rest.IepRestClient;
+import com.inspiring.surf.integration.util.AuditWriter;
 import com.inspiring.surf.integration.util.DynamicProperties;
-import com.inspiring.surf.integration.util.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,13 +25,12 @@ import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.que
 public class SmsResponseListener implements MessageHandler {
 
     private static final Logger log = LoggerFactory.getLogger(SmsResponseListener.class);
-    private static final Logger reprocess = LoggerFactory.getLogger("integration.audit.reprocess");
-    private static final Logger error = LoggerFactory.getLogger("integration.audit.error");
 
     private static final String TEMPLATE_EVENT_SMS_RESPONSE = "template.event.sms.response";
     private @Autowired IepRestClient iepRestClient;
     private @Autowired DynamicProperties dynamicProperties;
     private @Autowired BrokerMessageConfig broker;
+    private @Autowired AuditWriter audit;
 
     @PostConstruct
     public void init() {
@@ -39,17 +42,52 @@ public class SmsResponseListener implements MessageHandler {
         log.debug("Message received: {}", request);
         try {
             iepRestClient.executeEvent(queueNameResponse, getEventName(), request);
-        } catch (BrokerRetryException e) {
+        } catch (Throwable e) {
+            handleError(request, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> handleMessageAsync(Map<String, Object> request) {
+        log.debug("Message received: {}", request);
+        return iepRestClient.executeEventAsync(queueNameResponse, getEventName(), request).handle((v, e) -> {
+            if (e != null) {
+                handleError(request, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Submits every event of the batch before waiting on any, so they reach the Iep Server together, in one
+     * batch request when batching is enabled.
+     */
+    @Override
+    public List<CompletableFuture<Void>> handleMessages(List<Map<String, Object>> requests) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(requests.size());
+        for (Map<String, Object> request : requests) {
+            results.add(handleMessageAsync(request));
+        }
+        return results;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return iepRestClient.isAsync();
+    }
+
+    private void handleError(Map<String, Object> request, Throwable e) {
+        if (e instanceof BrokerRetryException) {
             log.debug("Sending message to retry: {}", request);
             try {
                 broker.sendMessageToRetry(queueNameResponse, request);
             } catch (SendToAuditException ea) {
                 log.warn(ea.getMessage());
-                reprocess.info("type={}|{}", queueNameResponse, MapUtils.toString(request, "|"));
+                audit.reprocess(queueNameResponse, request);
             }
-        } catch (Throwable e) {
+        } else {
 
-            error.info("error=0|type={}|{}", queueNameResponse, MapUtils.toString(request, "|"));
+            audit.error(0, queueNameResponse, request);
 
             if (log.isDebugEnabled()) {
                 log.error("Error processing message: " + request, e);
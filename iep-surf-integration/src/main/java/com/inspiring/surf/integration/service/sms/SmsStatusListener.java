@@ -5,15 +5,19 @@ import com.inspiring.surf.integration.broker.BrokerRetryException;
 import com.inspiring.surf.integration.broker.MessageHandler;
 import com.inspiring.surf.integration.exceptions.SendToAuditException;
 import com.inspiring.surf.integration.rest.IepRestClient;
+import com.inspiring.surf.integration.util.AuditWriter;
 import com.inspiring.surf.integration.util.DynamicProperties;
-import com.inspiring.surf.integration.util.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.queueNameStatus;
 
@@ -21,8 +25,6 @@ import static com.inspiring.surf.integration.service.sms.SmsInputServiceRest.que
 public class SmsStatusListener  implements MessageHandler {
 
     private static final Logger log = LoggerFactory.getLogger(SmsResponseListener.class);
-    private static final Logger reprocess = LoggerFactory.getLogger("integration.audit.reprocess");
-    private static final Logger error = LoggerFactory.getLogger("integration.audit.error");
 
     private static final String TEMPLATE_EVENT_SMS_STATUS = "template.event.sms.status";
     private @Autowired
@@ -31,6 +33,8 @@ public class SmsStatusListener  implements MessageHandler {
     DynamicProperties dynamicProperties;
     private @Autowired
     BrokerMessageConfig broker;
+    private @Autowired
+    AuditWriter audit;
 
     @PostConstruct
     public void init() {
@@ -42,17 +46,52 @@ public class SmsStatusListener  implements MessageHandler {
         log.debug("Message received: {}", request);
         try {
             iepRestClient.executeEvent(queueNameStatus, getEventName(), request);
-        } catch (BrokerRetryException e) {
+        } catch (Throwable e) {
+            handleError(request, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> handleMessageAsync(Map<String, Object> request) {
+        log.debug("Message received: {}", request);
+        return iepRestClient.executeEventAsync(queueNameStatus, getEventName(), request).handle((v, e) -> {
+            if (e != null) {
+                handleError(request, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Submits every event of the batch before waiting on any, so they reach the Iep Server together, in one
+     * batch request when batching is enabled.
+     */
+    @Override
+    public List<CompletableFuture<Void>> handleMessages(List<Map<String, Object>> requests) {
+        List<CompletableFuture<Void>> results = new ArrayList<>(requests.size());
+        for (Map<String, Object> request : requests) {
+            results.add(handleMessageAsync(request));
+        }
+        return results;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return iepRestClient.isAsync();
+    }
+
+    private void handleError(Map<String, Object> request, Throwable e) {
+        if (e instanceof BrokerRetryException) {
             log.debug("Sending message to retry: {}", request);
             try {
                 broker.sendMessageToRetry(queueNameStatus, request);
             } catch (SendToAuditException ea) {
                 log.warn(ea.getMessage());
-                reprocess.info("type={}|{}", queueNameStatus, MapUtils.toString(request, "|"));
+                audit.reprocess(queueNameStatus, request);
             }
-        } catch (Throwable e) {
+        } else {
 
-            error.info("error=0|type={}|{}", queueNameStatus, MapUtils.toString(request, "|"));
+            audit.error(0, queueNameStatus, request);
 
             if (log.isDebugEnabled()) {
                 log.error("Error processing message: " + request, e);
@@ -0,0 +1,253 @@
+package com.inspiring.surf.integration.util;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the audit lines off the request and consumer threads. The caller formats its line straight from the
+ * message fields into a preallocated ring entry and a single writer thread drains the ring, logging each line
+ * as its own event on the <code>integration.audit.*</code> loggers, so the appenders keep formatting, rotating
+ * and compressing the files as before. The timestamp of a line is when the writer logs it, behind the audit by
+ * the time the line waited in the ring.
+ * <p>
+ * When the ring is full the <code>audit.full.policy</code> applies: <code>sync</code> writes the line on the
+ * calling thread, as before, and <code>drop</code> discards it and counts it in the report. After shutdown the
+ * lines are always written on the calling thread, and the lines claimed in the ring before it are still drained.
+ */
+@Component
+public class AuditWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditWriter.class);
+    private static final Logger report = LoggerFactory.getLogger("monitor.reporter.log");
+
+    private static final Logger[] audits = {
+            LoggerFactory.getLogger("integration.audit.request"),
+            LoggerFactory.getLogger("integration.audit.success"),
+            LoggerFactory.getLogger("integration.audit.error"),
+            LoggerFactory.getLogger("integration.audit.duplicate"),
+            LoggerFactory.getLogger("integration.audit.reprocess")
+    };
+    private static final int REQUEST = 0;
+    private static final int SUCCESS = 1;
+    private static final int ERROR = 2;
+    private static final int DUPLICATE = 3;
+    private static final int REPROCESS = 4;
+
+    private static final String POLICY_DROP = "drop";
+    private static final int MAX_LINE_CAPACITY = 16 * 1024;
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SHUTDOWN_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SHUTDOWN_WAIT = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ThreadLocal<Entry> syncEntries = ThreadLocal.withInitial(Entry::new);
+
+    private @Value("${audit.buffer.size:8192}") int bufferSize;
+    private @Value("${audit.batch.size:512}") int batchSize;
+    private @Value("${audit.full.policy:sync}") String fullPolicy;
+
+    private Entry[] entries;
+    private AtomicLongArray sequences;
+    private int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private Thread writer;
+    private volatile boolean running;
+    private volatile boolean waiting;
+    private volatile boolean stopped;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong synced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int size = 2;
+        while (size < bufferSize) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        entries = new Entry[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+
+        running = true;
+        writer = new Thread(this::drain, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        if (writer.isAlive()) {
+            return;
+        }
+
+        // callers that claimed a slot before running was cleared may still be filling it
+        long deadline = System.nanoTime() + SHUTDOWN_WAIT;
+        while (head < tail.get() && System.nanoTime() < deadline) {
+            drainAll();
+            LockSupport.parkNanos(SHUTDOWN_PARK);
+        }
+        // the ones still filling it after the wait drain it themselves
+        stopped = true;
+        drainAll();
+    }
+
+    public void request(String type, Map<String, ?> fields) {
+        write(REQUEST, null, type, fields);
+    }
+
+    public void success(String type, Map<String, ?> fields) {
+        write(SUCCESS, null, type, fields);
+    }
+
+    public void duplicate(String type, Map<String, ?> fields) {
+        write(DUPLICATE, null, type, fields);
+    }
+
+    public void reprocess(String type, Map<String, ?> fields) {
+        write(REPROCESS, null, type, fields);
+    }
+
+    public void error(Object errorCode, String type, Map<String, ?> fields) {
+        write(ERROR, errorCode, type, fields);
+    }
+
+    private void write(int audit, Object errorCode, String type, Map<String, ?> fields) {
+        if (!audits[audit].isInfoEnabled()) {
+            return;
+        }
+        while (running) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entries[index].set(audit, errorCode, type, fields);
+                    sequences.set(index, position + 1);
+                    if (waiting) {
+                        LockSupport.unpark(writer);
+                    }
+                    if (stopped) {
+                        drainAll();
+                    }
+                    return;
+                }
+            } else if (diff < 0) {
+                break;
+            }
+        }
+
+        if (running && POLICY_DROP.equalsIgnoreCase(fullPolicy)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Entry entry = syncEntries.get();
+        entry.set(audit, errorCode, type, fields);
+        String line = entry.line.toString();
+        entry.clear();
+        audits[audit].info(line);
+        synced.incrementAndGet();
+    }
+
+    private void drain() {
+        while (true) {
+            int count = drainBatch();
+            if (count > 0) {
+                continue;
+            }
+            if (!running) {
+                return;
+            }
+            waiting = true;
+            if (sequences.get((int) head & mask) != head + 1) {
+                LockSupport.parkNanos(this, IDLE_PARK);
+            }
+            waiting = false;
+        }
+    }
+
+    /**
+     * Drains what is published after the writer thread ended, from {@link #destroy()} and from the callers.
+     */
+    private synchronized void drainAll() {
+        while (drainBatch() > 0) {
+            // drains every published entry
+        }
+    }
+
+    private int drainBatch() {
+        int count = 0;
+        long position = head;
+        while (count < batchSize && sequences.get((int) position & mask) == position + 1) {
+            int index = (int) position & mask;
+            Entry entry = entries[index];
+            int audit = entry.audit;
+            String line = entry.line.toString();
+            entry.clear();
+            sequences.set(index, position + mask + 1);
+            head = ++position;
+            count++;
+            try {
+                audits[audit].info(line);
+            } catch (RuntimeException e) {
+                log.error("Error writing audit line", e);
+            }
+        }
+        if (count > 0) {
+            written.addAndGet(count);
+        }
+        return count;
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void auditInfo() {
+        report.info("Audit Writer: Queued: {}, Capacity: {}, Written: {}, Sync: {}, Dropped: {}",
+                Math.max(0, tail.get() - head), mask + 1, written.get(), synced.get(), dropped.get());
+    }
+
+    /**
+     * Reusable ring entry, the line is formatted in place as <code>[error=code|]type=type|key=value|...</code>.
+     */
+    private static class Entry {
+
+        private int audit;
+        private StringBuilder line = new StringBuilder(256);
+
+        private void set(int audit, Object errorCode, String type, Map<String, ?> fields) {
+            this.audit = audit;
+            if (errorCode != null) {
+                line.append("error=").append(errorCode).append('|');
+            }
+            line.append("type=").append(type);
+            for (Map.Entry<String, ?> field : fields.entrySet()) {
+                line.append('|').append(field.getKey()).append('=').append(field.getValue());
+            }
+        }
+
+        private void clear() {
+            line.setLength(0);
+            if (line.capacity() > MAX_LINE_CAPACITY) {
+                line = new StringBuilder(256);
+            }
+        }
+    }
+}
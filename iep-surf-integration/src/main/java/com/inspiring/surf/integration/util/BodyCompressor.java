@@ -0,0 +1,67 @@
+package com.inspiring.surf.integration.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses request bodies as gzip or deflate (zlib) content encoding, writing the output in chunks straight
+ * to the stream. The deflaters, CRC and chunk buffer are kept per thread and reset between bodies, so
+ * compressing allocates nothing; the client threads are a fixed pool, which bounds the native memory held.
+ */
+public final class BodyCompressor {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int CHUNK = 8192;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final ThreadLocal<Deflater> gzipDeflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Deflater> zlibDeflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, false));
+    private static final ThreadLocal<CRC32> checksums = ThreadLocal.withInitial(CRC32::new);
+    private static final ThreadLocal<byte[]> chunks = ThreadLocal.withInitial(() -> new byte[CHUNK]);
+
+    private BodyCompressor() {
+    }
+
+    public static boolean isSupported(String encoding) {
+        return GZIP.equalsIgnoreCase(encoding) || DEFLATE.equalsIgnoreCase(encoding);
+    }
+
+    public static void compress(String encoding, int level, byte[] data, int length, OutputStream out) throws IOException {
+        boolean gzip = GZIP.equalsIgnoreCase(encoding);
+        Deflater deflater = gzip ? gzipDeflaters.get() : zlibDeflaters.get();
+        byte[] chunk = chunks.get();
+
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        if (gzip) {
+            out.write(GZIP_HEADER);
+        }
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk, 0, chunk.length);
+            if (count > 0) {
+                out.write(chunk, 0, count);
+            }
+        }
+        if (gzip) {
+            CRC32 crc = checksums.get();
+            crc.reset();
+            crc.update(data, 0, length);
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, length);
+        }
+    }
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >> 24) & 0xFF);
+    }
+}
@@ -0,0 +1,268 @@
+package com.inspiring.surf.integration.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact binary encoding for flat message maps. Known keys are written as a one byte dictionary index,
+ * other keys are written inline. Supported values are strings, integers, longs and booleans.
+ * The dictionary is append only, existing entries must never change position.
+ */
+public class CompactMapCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final String[] DICTIONARY = {"msisdn", "text", "shortNumber", "correlationId", "date", "status", "x-msg-retry-count"};
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_TRUE = 4;
+    private static final byte TYPE_FALSE = 5;
+
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.length; i++) {
+            DICTIONARY_INDEX.put(DICTIONARY[i], i + 1);
+        }
+    }
+
+    public static boolean isSupported(Map<?, ?> map) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            if (!(entry.getKey() instanceof String)) {
+                return false;
+            }
+            if (value != null && !(value instanceof String || value instanceof Integer || value instanceof Long
+                    || value instanceof Boolean)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static byte[] encode(Map<String, Object> map) {
+        Writer writer = new Writer(64 + map.size() * 24);
+        writer.writeByte(VERSION);
+        writer.writeVarInt(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Integer index = DICTIONARY_INDEX.get(entry.getKey());
+            if (index != null) {
+                writer.writeVarInt(index);
+            } else {
+                writer.writeVarInt(0);
+                writer.writeString(entry.getKey());
+            }
+            writer.writeValue(entry.getValue());
+        }
+        return writer.toByteArray();
+    }
+
+    public static Map<String, Object> decode(byte[] bytes) {
+        Reader reader = new Reader(bytes);
+        byte version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported compact message version: " + version);
+        }
+        int size = reader.readVarInt();
+        Map<String, Object> map = new HashMap<>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++) {
+            int index = reader.readVarInt();
+            String key;
+            if (index == 0) {
+                key = reader.readString();
+            } else if (index <= DICTIONARY.length) {
+                key = DICTIONARY[index - 1];
+            } else {
+                throw new IllegalArgumentException("Unknown compact message key index: " + index);
+            }
+            map.put(key, reader.readValue());
+        }
+        return map;
+    }
+
+    private static class Writer {
+
+        private byte[] buffer;
+        private int position;
+
+        private Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        private void ensure(int bytes) {
+            if (position + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeString(String value) {
+            int length = value.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    utf8Length++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+            writeVarInt(utf8Length);
+            ensure(utf8Length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                writeByte(TYPE_NULL);
+            } else if (value instanceof String) {
+                writeByte(TYPE_STRING);
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                int i = (Integer) value;
+                writeByte(TYPE_INT);
+                writeVarInt((i << 1) ^ (i >> 31));
+            } else if (value instanceof Long) {
+                long l = (Long) value;
+                writeByte(TYPE_LONG);
+                writeVarLong((l << 1) ^ (l >> 63));
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else {
+                throw new IllegalArgumentException("Unsupported compact message value: " + value.getClass().getName());
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] buffer;
+        private int position;
+
+        private Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private byte readByte() {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("Truncated compact message");
+            }
+            return buffer[position++];
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed compact message varint");
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed compact message varint");
+        }
+
+        private String readString() {
+            int length = readVarInt();
+            if (length < 0 || position + length > buffer.length) {
+                throw new IllegalArgumentException("Truncated compact message");
+            }
+            String value = new String(buffer, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        private Object readValue() {
+            byte type = readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_INT:
+                    int i = readVarInt();
+                    return (i >>> 1) ^ -(i & 1);
+                case TYPE_LONG:
+                    long l = readVarLong();
+                    return (l >>> 1) ^ -(l & 1);
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                default:
+                    throw new IllegalArgumentException("Unknown compact message value type: " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.inspiring.surf.integration.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Task executor for the broker listener containers. Each consumer holds a thread for as long as it runs, so
+ * the pooled mode uses a direct hand-off with no queue, reusing threads released by stopped consumers and
+ * bounded by the sum of the max consumers of all queues plus some headroom, since a container restart or a
+ * scale-up can start new consumers before the threads of the stopped ones are released. A consumer that still
+ * finds the pool full runs on a thread of its own instead of being rejected.
+ */
+public class ConsumerTaskExecutor extends ConcurrentTaskExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(ConsumerTaskExecutor.class);
+
+    public static final String MODE_SIMPLE = "simple";
+    public static final String MODE_POOLED = "pooled";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private final String mode;
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicLong created = new AtomicLong(0);
+    private final AtomicLong overflow = new AtomicLong(0);
+    private ThreadPoolExecutor threadPool;
+
+    private ConsumerTaskExecutor(String mode) {
+        this.mode = mode;
+    }
+
+    public static ConsumerTaskExecutor create(String mode, String threadNamePrefix, int maxThreads) {
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            Executor virtualThreads = virtualThreadExecutor();
+            if (virtualThreads != null) {
+                ConsumerTaskExecutor executor = new ConsumerTaskExecutor(MODE_VIRTUAL);
+                executor.setConcurrentExecutor(virtualThreads);
+                return executor;
+            }
+            log.warn("Virtual threads not supported by this JVM, using pooled consumer executor");
+        } else if (MODE_SIMPLE.equalsIgnoreCase(mode)) {
+            SimpleAsyncTaskExecutor simpleAsyncTaskExecutor = new SimpleAsyncTaskExecutor("Request Consumer");
+            simpleAsyncTaskExecutor.setThreadNamePrefix(threadNamePrefix);
+            ConsumerTaskExecutor executor = new ConsumerTaskExecutor(MODE_SIMPLE);
+            executor.setConcurrentExecutor(simpleAsyncTaskExecutor);
+            return executor;
+        }
+
+        ConsumerTaskExecutor executor = new ConsumerTaskExecutor(MODE_POOLED);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix) {
+
+            private static final long serialVersionUID = -3476282925342457125L;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                executor.created.incrementAndGet();
+                return super.newThread(runnable);
+            }
+        };
+        executor.threadPool = new ThreadPoolExecutor(0, withHeadroom(maxThreads), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory, (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("Consumer executor is shut down");
+                    }
+                    executor.overflow.incrementAndGet();
+                    log.warn("Consumer executor full ({} threads), starting consumer on a dedicated thread", pool.getMaximumPoolSize());
+                    threadFactory.newThread(task).start();
+                });
+        executor.setConcurrentExecutor(executor.threadPool);
+        return executor;
+    }
+
+    private static int withHeadroom(int maxThreads) {
+        maxThreads = Math.max(1, maxThreads);
+        return maxThreads + Math.max(2, maxThreads / 4);
+    }
+
+    private static Executor virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        super.execute(track(task));
+    }
+
+    @Override
+    public void execute(Runnable task, long startTimeout) {
+        super.execute(track(task), startTimeout);
+    }
+
+    private Runnable track(Runnable task) {
+        if (threadPool == null) {
+            created.incrementAndGet();
+        }
+        return () -> {
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        };
+    }
+
+    public void setMaxPoolSize(int maxThreads) {
+        if (threadPool != null && threadPool.getMaximumPoolSize() != withHeadroom(maxThreads)) {
+            threadPool.setMaximumPoolSize(withHeadroom(maxThreads));
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getQueueSize() {
+        return threadPool != null ? threadPool.getQueue().size() : 0;
+    }
+
+    public int getPoolSize() {
+        return threadPool != null ? threadPool.getPoolSize() : active.get();
+    }
+
+    public int getMaxPoolSize() {
+        return threadPool != null ? threadPool.getMaximumPoolSize() : Integer.MAX_VALUE;
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Consumers started outside the pool because it was full.
+     */
+    public long getOverflowCount() {
+        return overflow.get();
+    }
+
+    public void shutdown() {
+        if (threadPool != null) {
+            threadPool.shutdown();
+        }
+    }
+}
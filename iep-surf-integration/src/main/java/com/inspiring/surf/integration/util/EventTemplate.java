@@ -0,0 +1,245 @@
+package com.inspiring.surf.integration.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Event template parsed once into literal and variable segments. Supports the subset of
+ * {@link org.apache.commons.lang3.text.StrSubstitutor} syntax used by the templates: <code>${name}</code>,
+ * <code>${name:-default}</code> and <code>$${</code> as an escaped <code>${</code>. Variables without a value
+ * are rendered unchanged, values are not substituted again.
+ * <p>
+ * {@link #writeTo} writes the event as UTF-8 straight to a stream, optionally escaping values for use inside
+ * JSON strings, without building the body as a String.
+ */
+public final class EventTemplate {
+
+    private static final String PREFIX = "${";
+    private static final String SUFFIX = "}";
+    private static final String DEFAULT_DELIMITER = ":-";
+    private static final int MAX_BUFFER = 64 * 1024;
+
+    private static final int BYTE_BUFFER = 4096;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+
+    private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+    private static final ThreadLocal<byte[]> byteBuffers = ThreadLocal.withInitial(() -> new byte[BYTE_BUFFER]);
+
+    private final String[] literals;
+    private final String[] names;
+    private final String[] placeholders;
+    private final String[] defaults;
+    private final byte[][] literalBytes;
+    private final byte[][] placeholderBytes;
+    private final int length;
+
+    private EventTemplate(List<String> literals, List<String> names, List<String> placeholders, List<String> defaults) {
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.names = names.toArray(new String[names.size()]);
+        this.placeholders = placeholders.toArray(new String[placeholders.size()]);
+        this.defaults = defaults.toArray(new String[defaults.size()]);
+        this.literalBytes = new byte[this.literals.length][];
+        for (int i = 0; i < this.literals.length; i++) {
+            literalBytes[i] = this.literals[i].getBytes(UTF_8);
+        }
+        this.placeholderBytes = new byte[this.placeholders.length][];
+        for (int i = 0; i < this.placeholders.length; i++) {
+            placeholderBytes[i] = this.placeholders[i].getBytes(UTF_8);
+        }
+        int size = 0;
+        for (String literal : literals) {
+            size += literal.length();
+        }
+        this.length = size;
+    }
+
+    public static EventTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        List<String> defaults = new ArrayList<>();
+
+        StringBuilder literal = new StringBuilder();
+        int position = 0;
+        while (position < template.length()) {
+            int start = template.indexOf(PREFIX, position);
+            if (start < 0) {
+                break;
+            }
+            if (start > 0 && template.charAt(start - 1) == '$') {
+                literal.append(template, position, start - 1).append(PREFIX);
+                position = start + PREFIX.length();
+                continue;
+            }
+            int end = template.indexOf(SUFFIX, start + PREFIX.length());
+            if (end < 0) {
+                break;
+            }
+
+            literal.append(template, position, start);
+            literals.add(literal.toString());
+            literal.setLength(0);
+
+            String variable = template.substring(start + PREFIX.length(), end);
+            int delimiter = variable.indexOf(DEFAULT_DELIMITER);
+            names.add(delimiter < 0 ? variable : variable.substring(0, delimiter));
+            defaults.add(delimiter < 0 ? null : variable.substring(delimiter + DEFAULT_DELIMITER.length()));
+            placeholders.add(template.substring(start, end + SUFFIX.length()));
+            position = end + SUFFIX.length();
+        }
+        literal.append(template, position, template.length());
+        literals.add(literal.toString());
+
+        return new EventTemplate(literals, names, placeholders, defaults);
+    }
+
+    public String render(Map<String, Object> variables) {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        render(variables, buffer);
+        String result = buffer.toString();
+        if (buffer.capacity() > MAX_BUFFER) {
+            buffers.remove();
+        }
+        return result;
+    }
+
+    public void render(Map<String, Object> variables, StringBuilder out) {
+        out.ensureCapacity(out.length() + length + names.length * 16);
+        for (int i = 0; i < names.length; i++) {
+            out.append(literals[i]);
+            Object value = variables.get(names[i]);
+            if (value != null) {
+                out.append(value);
+            } else if (defaults[i] != null) {
+                out.append(defaults[i]);
+            } else {
+                out.append(placeholders[i]);
+            }
+        }
+        out.append(literals[names.length]);
+    }
+
+    public void writeTo(Map<String, Object> variables, OutputStream out, boolean jsonEscape) throws IOException {
+        Utf8Writer writer = new Utf8Writer(out, byteBuffers.get(), jsonEscape);
+        for (int i = 0; i < names.length; i++) {
+            writer.writeRaw(literalBytes[i]);
+            Object value = variables.get(names[i]);
+            if (value != null) {
+                writer.write(value.toString());
+            } else if (defaults[i] != null) {
+                writer.write(defaults[i]);
+            } else {
+                writer.writeRaw(placeholderBytes[i]);
+            }
+        }
+        writer.writeRaw(literalBytes[names.length]);
+        writer.flush();
+    }
+
+    public int getVariableCount() {
+        return names.length;
+    }
+
+    /**
+     * Encodes strings as UTF-8 into a reusable buffer, escaping JSON string special characters when enabled.
+     */
+    private static class Utf8Writer {
+
+        private final OutputStream out;
+        private final byte[] buffer;
+        private final boolean jsonEscape;
+        private int position;
+
+        private Utf8Writer(OutputStream out, byte[] buffer, boolean jsonEscape) {
+            this.out = out;
+            this.buffer = buffer;
+            this.jsonEscape = jsonEscape;
+        }
+
+        private void writeRaw(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - position) {
+                flush();
+                out.write(bytes);
+            } else {
+                System.arraycopy(bytes, 0, buffer, position, bytes.length);
+                position += bytes.length;
+            }
+        }
+
+        private void write(String value) throws IOException {
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                if (position + 6 > buffer.length) {
+                    flush();
+                }
+                char c = value.charAt(i);
+                if (jsonEscape && (c < 0x20 || c == '"' || c == '\\' || c == 0x2028 || c == 0x2029)) {
+                    escape(c);
+                } else if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void escape(char c) {
+            buffer[position++] = '\\';
+            switch (c) {
+                case '"':
+                    buffer[position++] = '"';
+                    break;
+                case '\\':
+                    buffer[position++] = '\\';
+                    break;
+                case '\n':
+                    buffer[position++] = 'n';
+                    break;
+                case '\r':
+                    buffer[position++] = 'r';
+                    break;
+                case '\t':
+                    buffer[position++] = 't';
+                    break;
+                case '\b':
+                    buffer[position++] = 'b';
+                    break;
+                case '\f':
+                    buffer[position++] = 'f';
+                    break;
+                default:
+                    buffer[position++] = 'u';
+                    buffer[position++] = HEX[(c >> 12) & 0xF];
+                    buffer[position++] = HEX[(c >> 8) & 0xF];
+                    buffer[position++] = HEX[(c >> 4) & 0xF];
+                    buffer[position++] = HEX[c & 0xF];
+            }
+        }
+
+        private void flush() throws IOException {
+            if (position > 0) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.inspiring.surf.integration.util;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Decodes selected fields of an application/x-www-form-urlencoded body straight from its bytes. Keys are
+ * compared as bytes and only the values of the wanted keys are decoded, into a reusable per thread buffer, so
+ * the only allocations are the returned value Strings. The first occurrence of a key wins.
+ */
+public final class FormDecoder {
+
+    private static final int MAX_BUFFER = 64 * 1024;
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    private final String[] keys;
+    private final byte[][] names;
+
+    public FormDecoder(String... names) {
+        this.keys = names.clone();
+        this.names = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            this.names[i] = names[i].getBytes(UTF_8);
+        }
+    }
+
+    /**
+     * Returns the values in the order of the names given to the constructor, null for the missing ones.
+     */
+    public String[] decode(byte[] data, int length) {
+        return decode(data, length, UTF_8);
+    }
+
+    /**
+     * Same as {@link #decode(byte[], int)}, the percent-decoded bytes of the values are read in the given charset.
+     */
+    public String[] decode(byte[] data, int length, Charset charset) {
+        String[] values = new String[names.length];
+        int position = 0;
+        while (position < length) {
+            int end = indexOf(data, '&', position, length);
+            int separator = indexOf(data, '=', position, end);
+            int index = find(data, position, separator, charset);
+            if (index >= 0 && values[index] == null) {
+                values[index] = separator < end ? decodeValue(data, separator + 1, end, charset) : "";
+            }
+            position = end + 1;
+        }
+        return values;
+    }
+
+    /**
+     * Same as {@link #decode(byte[], int)}, from the parameters the container already parsed.
+     */
+    public String[] decode(Map<String, String[]> parameters) {
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            String[] value = parameters.get(keys[i]);
+            values[i] = value != null && value.length > 0 ? value[0] : null;
+        }
+        return values;
+    }
+
+    private int find(byte[] data, int start, int end, Charset charset) {
+        for (int i = 0; i < names.length; i++) {
+            if (matches(names[i], data, start, end)) {
+                return i;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            if (data[i] == '%' || data[i] == '+') {
+                byte[] key = decodeValue(data, start, end, charset).getBytes(UTF_8);
+                for (int n = 0; n < names.length; n++) {
+                    if (matches(names[n], key, 0, key.length)) {
+                        return n;
+                    }
+                }
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] name, byte[] data, int start, int end) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != data[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decodeValue(byte[] data, int start, int end, Charset charset) {
+        byte[] buffer = buffers.get();
+        if (buffer.length < end - start) {
+            buffer = new byte[end - start];
+            if (buffer.length <= MAX_BUFFER) {
+                buffers.set(buffer);
+            }
+        }
+
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if (b == '+') {
+                buffer[count++] = ' ';
+            } else if (b == '%' && i + 2 < end && hex(data[i + 1]) >= 0 && hex(data[i + 2]) >= 0) {
+                buffer[count++] = (byte) ((hex(data[i + 1]) << 4) | hex(data[i + 2]));
+                i += 2;
+            } else {
+                buffer[count++] = b;
+            }
+        }
+        return new String(buffer, 0, count, charset);
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] data, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
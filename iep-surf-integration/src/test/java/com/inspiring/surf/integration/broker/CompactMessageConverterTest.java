@@ -0,0 +1,172 @@
+package com.inspiring.surf.integration.broker;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Converts message maps to AMQP messages and back: compact below the compression threshold, compact and
+ * deflated above it, and Java serialized when the compact format is disabled or cannot hold the map. Messages
+ * published by an older version, before the compact format, must still be read.
+ */
+public class CompactMessageConverterTest {
+
+    private static final int THRESHOLD = 256;
+
+    private final CompactMessageConverter converter = new CompactMessageConverter(() -> true, () -> THRESHOLD);
+
+    @Test
+    public void writesASmallMessageWithoutCompression() {
+        Map<String, Object> map = message("Adesão confirmada");
+
+        Message message = converter.toMessage(map, new MessageProperties());
+
+        assertEquals(CompactMessageConverter.CONTENT_TYPE_COMPACT, message.getMessageProperties().getContentType());
+        assertNull(message.getMessageProperties().getContentEncoding());
+        assertTrue(message.getBody().length <= THRESHOLD);
+        assertEquals(message.getBody().length, message.getMessageProperties().getContentLength());
+        assertEquals(map, converter.fromMessage(message));
+    }
+
+    @Test
+    public void deflatesAMessageAboveTheThreshold() {
+        Map<String, Object> map = message(text(THRESHOLD * 4));
+
+        Message message = converter.toMessage(map, new MessageProperties());
+
+        assertEquals(CompactMessageConverter.CONTENT_TYPE_COMPACT, message.getMessageProperties().getContentType());
+        assertEquals("deflate", message.getMessageProperties().getContentEncoding());
+        assertTrue(message.getBody().length < THRESHOLD * 4);
+        assertEquals(message.getBody().length, message.getMessageProperties().getContentLength());
+        assertEquals(map, converter.fromMessage(message));
+    }
+
+    @Test
+    public void compressesOnlyAboveTheThreshold() {
+        Map<String, Object> atThreshold = encodedTo(THRESHOLD);
+        Map<String, Object> aboveThreshold = encodedTo(THRESHOLD + 1);
+
+        Message at = converter.toMessage(atThreshold, new MessageProperties());
+        Message above = converter.toMessage(aboveThreshold, new MessageProperties());
+
+        assertEquals(THRESHOLD, at.getBody().length);
+        assertNull(at.getMessageProperties().getContentEncoding());
+        assertEquals("deflate", above.getMessageProperties().getContentEncoding());
+        assertEquals(atThreshold, converter.fromMessage(at));
+        assertEquals(aboveThreshold, converter.fromMessage(above));
+    }
+
+    @Test
+    public void doesNotCompressWhenTheThresholdIsZero() {
+        CompactMessageConverter uncompressed = new CompactMessageConverter(() -> true, () -> 0);
+        Map<String, Object> map = message(text(THRESHOLD * 4));
+
+        Message message = uncompressed.toMessage(map, new MessageProperties());
+
+        assertNull(message.getMessageProperties().getContentEncoding());
+        assertEquals(map, uncompressed.fromMessage(message));
+    }
+
+    @Test
+    public void roundTripsNullsAndUnknownKeys() {
+        Map<String, Object> map = message(null);
+        map.put("campaign", "promo-10");
+        map.put("x-msg-retry-count", 2);
+        map.put("expires", 1L << 40);
+        map.put("urgent", true);
+
+        assertEquals(map, converter.fromMessage(converter.toMessage(map, new MessageProperties())));
+    }
+
+    @Test
+    public void readsALegacySerializedMessage() {
+        Map<String, Object> map = message("Adesão confirmada");
+        map.put("x-msg-retry-count", 1);
+        Message legacy = new SimpleMessageConverter().toMessage(new HashMap<>(map), new MessageProperties());
+
+        assertEquals(MessageProperties.CONTENT_TYPE_SERIALIZED_OBJECT, legacy.getMessageProperties().getContentType());
+        assertEquals(map, converter.fromMessage(legacy));
+    }
+
+    @Test
+    public void writesSerializedWhenTheCompactFormatIsDisabled() {
+        CompactMessageConverter disabled = new CompactMessageConverter(() -> false, () -> THRESHOLD);
+        Map<String, Object> map = message("Adesão confirmada");
+
+        Message message = disabled.toMessage(new HashMap<>(map), new MessageProperties());
+
+        assertEquals(MessageProperties.CONTENT_TYPE_SERIALIZED_OBJECT, message.getMessageProperties().getContentType());
+        assertEquals(map, new SimpleMessageConverter().fromMessage(message));
+        assertEquals(map, converter.fromMessage(message));
+    }
+
+    @Test
+    public void writesSerializedWhenAValueIsNotSupported() {
+        Map<String, Object> map = message("text");
+        map.put("received", new Date(0));
+
+        Message message = converter.toMessage(map, new MessageProperties());
+
+        assertEquals(MessageProperties.CONTENT_TYPE_SERIALIZED_OBJECT, message.getMessageProperties().getContentType());
+        assertEquals(map, converter.fromMessage(message));
+    }
+
+    @Test(expected = MessageConversionException.class)
+    public void rejectsACorruptedCompactMessage() {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(CompactMessageConverter.CONTENT_TYPE_COMPACT);
+
+        converter.fromMessage(new Message(new byte[]{1, 1, 100, 0}, properties));
+    }
+
+    @Test(expected = MessageConversionException.class)
+    public void rejectsATruncatedDeflatedMessage() {
+        Message message = converter.toMessage(message(text(THRESHOLD * 4)), new MessageProperties());
+        byte[] body = message.getBody();
+        byte[] truncated = new byte[body.length / 2];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+
+        converter.fromMessage(new Message(truncated, message.getMessageProperties()));
+    }
+
+    /**
+     * Builds a message whose uncompressed compact body has the given length.
+     */
+    private static Map<String, Object> encodedTo(int length) {
+        CompactMessageConverter uncompressed = new CompactMessageConverter(() -> true, () -> 0);
+        for (int i = 0; i < length; i++) {
+            Map<String, Object> map = message(text(i));
+            if (uncompressed.toMessage(map, new MessageProperties()).getBody().length == length) {
+                return map;
+            }
+        }
+        throw new AssertionError("No message encodes to " + length + " bytes");
+    }
+
+    private static Map<String, Object> message(String text) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("msisdn", "11999998888");
+        map.put("text", text);
+        map.put("shortNumber", "40001");
+        map.put("correlationId", "corr-1");
+        return map;
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+}
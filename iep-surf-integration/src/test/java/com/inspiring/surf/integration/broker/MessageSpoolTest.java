@@ -0,0 +1,191 @@
+package com.inspiring.surf.integration.broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appends and drains through real segment files. Every record has the queue "q" and a 7 byte body, 18 bytes with
+ * the header, so a 64 byte segment holds three of them: the tests corrupt the files at known offsets.
+ */
+public class MessageSpoolTest {
+
+    private static final int SEGMENT_SIZE = 64;
+    private static final int RECORD_SIZE = 18;
+
+    private File directory;
+    private List<MessageSpool> spools = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spool-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        spools.forEach(MessageSpool::close);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void drainsInOrderAcrossSegments() throws IOException {
+        MessageSpool spool = open();
+        append(spool, 7);
+
+        assertEquals(range(0, 7), drain(spool, 100));
+        assertTrue(spool.isEmpty());
+        assertEquals(0, spool.getDiscardedRecords());
+        assertEquals(1, segments().length);
+    }
+
+    @Test
+    public void resumesFromTheCheckpoint() throws IOException {
+        MessageSpool spool = open();
+        append(spool, 5);
+        assertEquals(range(0, 2), drain(spool, 2));
+        spool.close();
+
+        assertEquals(range(2, 5), drain(open(), 100));
+    }
+
+    @Test
+    public void keepsARecordTheConsumerDidNotAccept() throws IOException {
+        MessageSpool spool = open();
+        append(spool, 2);
+
+        assertEquals(0, spool.drain(100, (queue, body) -> false));
+        assertEquals(range(0, 2), drain(spool, 100));
+    }
+
+    @Test
+    public void truncatesATornTail() throws IOException {
+        MessageSpool spool = open();
+        append(spool, 2);
+        spool.close();
+        corrupt(1, RECORD_SIZE + 12);
+
+        spool = open();
+        spool.append("q", body(9)).join();
+        assertEquals(list(0, 9), drain(spool, 100));
+        assertEquals(0, spool.getDiscardedRecords());
+    }
+
+    @Test
+    public void skipsTheSegmentOfACorruptedLength() throws IOException {
+        MessageSpool spool = open();
+        append(spool, 5);
+        writeInt(1, RECORD_SIZE, Integer.MAX_VALUE);
+
+        assertEquals(list(0, 3, 4), drain(spool, 100));
+        assertEquals(1, spool.getDiscardedRecords());
+        assertEquals(SEGMENT_SIZE - RECORD_SIZE, spool.getDiscardedBytes());
+    }
+
+    @Test
+    public void skipsTheSegmentOfACorruptedRecord() throws IOException {
+        MessageSpool spool = open();
+        append(spool, 5);
+        writeInt(1, RECORD_SIZE, 20);
+
+        assertEquals(list(0, 3, 4), drain(spool, 100));
+        assertEquals(1, spool.getDiscardedRecords());
+        assertEquals(1, segments().length);
+    }
+
+    @Test
+    public void skipsTheRestOfTheSegmentBeingWritten() throws IOException {
+        MessageSpool spool = open();
+        append(spool, 2);
+        corrupt(1, 12);
+
+        assertTrue(drain(spool, 100).isEmpty());
+        assertEquals(1, spool.getDiscardedRecords());
+        assertTrue(spool.isEmpty());
+
+        spool.append("q", body(9)).join();
+        assertEquals(list(9), drain(spool, 100));
+    }
+
+    private MessageSpool open() throws IOException {
+        MessageSpool spool = new MessageSpool(directory, SEGMENT_SIZE, 1);
+        spools.add(spool);
+        return spool;
+    }
+
+    private static void append(MessageSpool spool, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            spool.append("q", body(i)).join();
+        }
+    }
+
+    private static List<String> drain(MessageSpool spool, int maxRecords) throws IOException {
+        List<String> drained = new ArrayList<>();
+        spool.drain(maxRecords, (queue, body) -> {
+            assertEquals("q", queue);
+            drained.add(new String(body, UTF_8));
+            return true;
+        });
+        return drained;
+    }
+
+    private static byte[] body(int index) {
+        return String.format("body-%02d", index).getBytes(UTF_8);
+    }
+
+    private static List<String> range(int from, int to) {
+        List<String> bodies = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            bodies.add(new String(body(i), UTF_8));
+        }
+        return bodies;
+    }
+
+    private static List<String> list(int... indexes) {
+        List<String> bodies = new ArrayList<>();
+        for (int index : indexes) {
+            bodies.add(new String(body(index), UTF_8));
+        }
+        return bodies;
+    }
+
+    private void corrupt(long segment, int position) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment(segment), "rw")) {
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+    }
+
+    private void writeInt(long segment, int position, int value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment(segment), "rw")) {
+            file.seek(position);
+            file.writeInt(value);
+        }
+    }
+
+    private File segment(long segment) {
+        return new File(directory, String.format("spool-%020d.dat", segment));
+    }
+
+    private File[] segments() {
+        return directory.listFiles((dir, name) -> name.endsWith(".dat"));
+    }
+}
@@ -0,0 +1,269 @@
+package com.inspiring.surf.integration.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.inspiring.surf.integration.broker.BrokerRetryException;
+import com.inspiring.surf.integration.util.AuditWriter;
+import com.inspiring.surf.integration.util.BlockingThreadPoolExecutor;
+import com.inspiring.surf.integration.util.DynamicProperties;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Sends events through {@link IepRestClient#executeEvent} with batching enabled to a stand-in batch endpoint,
+ * which records every JSON array it receives and answers each event by its correlation id. The linger time is
+ * longer than the tests, so a batch is only sent when it is full.
+ */
+public class IepRestClientBatchTest {
+
+    private static final String SOURCE = "sms";
+    private static final String TEMPLATE = "templates/event.sms.response.json";
+    private static final int BATCH_SIZE = 4;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final Map<String, String> results = new ConcurrentHashMap<>();
+    private final Map<String, String> properties = new HashMap<>();
+    private volatile String responseBody;
+
+    private HttpServer server;
+    private AuditWriter audit;
+    private BlockingThreadPoolExecutor restExecutor;
+    private ThreadPoolTaskExecutor callbackExecutor;
+    private ExecutorService consumers;
+    private IepRestClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/rs/event/batch", exchange -> {
+            String request;
+            try (InputStream in = exchange.getRequestBody()) {
+                request = StreamUtils.copyToString(in, UTF_8);
+            }
+            requests.add(request);
+            byte[] body = (responseBody != null ? responseBody : answer(request)).getBytes(UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        properties.put("iep.server.url", "http://127.0.0.1:" + server.getAddress().getPort());
+        properties.put("iep.server.batch.enabled", "true");
+        properties.put("iep.server.batch.size", String.valueOf(BATCH_SIZE));
+        properties.put("iep.server.batch.linger.ms", "60000");
+        properties.put("iep.server.pool.prewarm.connections", "0");
+        properties.put("iep.server.request.timeout", "5000");
+        properties.put("iep.server.connection.timeout", "5000");
+        properties.put("iep.server.socket.timeout", "5000");
+        DynamicProperties dynamicProperties = mock(DynamicProperties.class, invocation -> {
+            Object[] arguments = invocation.getArguments();
+            if (arguments.length != 2 || !invocation.getMethod().getName().startsWith("get")) {
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+            String value = properties.get(arguments[0]);
+            if (value == null) {
+                return arguments[1];
+            }
+            Class<?> type = invocation.getMethod().getReturnType();
+            if (type == Integer.class) {
+                return Integer.valueOf(value);
+            } else if (type == Long.class) {
+                return Long.valueOf(value);
+            } else if (type == Boolean.class) {
+                return Boolean.valueOf(value);
+            }
+            return value;
+        });
+
+        IepEndpointBalancer balancer = new IepEndpointBalancer();
+        ReflectionTestUtils.setField(balancer, "dynamicProperties", dynamicProperties);
+
+        audit = mock(AuditWriter.class);
+        restExecutor = new BlockingThreadPoolExecutor("iep-test-");
+        restExecutor.setCorePoolSize(2);
+        restExecutor.initialize();
+        callbackExecutor = new ThreadPoolTaskExecutor();
+        callbackExecutor.initialize();
+        consumers = Executors.newFixedThreadPool(BATCH_SIZE);
+
+        client = new IepRestClient();
+        ReflectionTestUtils.setField(client, "dynamicProperties", dynamicProperties);
+        ReflectionTestUtils.setField(client, "resourceLoader", new DefaultResourceLoader());
+        ReflectionTestUtils.setField(client, "iepServerRestExecutor", restExecutor);
+        ReflectionTestUtils.setField(client, "idempotencyCache", mock(IdempotencyCache.class));
+        ReflectionTestUtils.setField(client, "balancer", balancer);
+        ReflectionTestUtils.setField(client, "latencyMetrics", mock(IepLatencyMetrics.class));
+        ReflectionTestUtils.setField(client, "audit", audit);
+        ReflectionTestUtils.setField(client, "iepServerCallbackExecutor", callbackExecutor);
+        ReflectionTestUtils.setField(client, "clientMode", "blocking");
+        ReflectionTestUtils.setField(client, "poolIdleTimeout", 300L);
+        client.init();
+    }
+
+    @After
+    public void tearDown() {
+        client.destroy();
+        consumers.shutdownNow();
+        restExecutor.shutdown();
+        callbackExecutor.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void sendsTheEventsAsOneJsonArray() throws Exception {
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            events.add(event("id-" + i, "Resposta \"" + i + "\" com acentuação\\"));
+        }
+
+        for (Future<?> result : execute(events)) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, requests.size());
+        JsonNode batch = objectMapper.readTree(requests.get(0));
+        assertTrue(batch.isArray());
+        assertEquals(BATCH_SIZE, batch.size());
+        Set<String> received = new HashSet<>();
+        for (JsonNode event : batch) {
+            String correlationId = event.path("attributes").path("id_correlacao").asText();
+            received.add(correlationId);
+            assertEquals(text(events, correlationId), event.path("attributes").path("texto_sms").asText());
+            assertEquals("11999998888", event.path("actors").get(0).path("keyValue").asText());
+        }
+        assertEquals(BATCH_SIZE, received.size());
+        for (Map<String, Object> event : events) {
+            verify(audit).success(eq(SOURCE), eq(event));
+        }
+    }
+
+    @Test
+    public void mapsEachResultToItsEvent() throws Exception {
+        results.put("id-1", "{\"status\": 422, \"errorCode\": \"E42\", \"errorMessage\": \"Invalid msisdn\"}");
+        results.put("id-2", "{\"status\": 503}");
+        results.put("id-3", "{\"errorCode\": \"E1\"}");
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            events.add(event("id-" + i, "text-" + i));
+        }
+
+        List<Future<?>> outcomes = execute(events);
+        outcomes.get(0).get(10, TimeUnit.SECONDS);
+        outcomes.get(1).get(10, TimeUnit.SECONDS);
+        outcomes.get(2).get(10, TimeUnit.SECONDS);
+        assertRetried(outcomes.get(3));
+
+        assertEquals(1, requests.size());
+        verify(audit).success(eq(SOURCE), eq(events.get(0)));
+        verify(audit).error(eq("E42"), eq(SOURCE), eq(events.get(1)));
+        verify(audit).error(eq(503), eq(SOURCE), eq(events.get(2)));
+    }
+
+    @Test
+    public void retriesEveryEventWhenTheBodyIsNotAnArray() throws Exception {
+        responseBody = "{\"status\": 200}";
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            events.add(event("id-" + i, "text-" + i));
+        }
+
+        for (Future<?> outcome : execute(events)) {
+            assertRetried(outcome);
+        }
+        assertEquals(1, requests.size());
+    }
+
+    /**
+     * Answers each event of the batch with the result set for its correlation id, 200 when none was set.
+     */
+    private String answer(String request) throws IOException {
+        StringBuilder answer = new StringBuilder("[");
+        for (JsonNode event : objectMapper.readTree(request)) {
+            if (answer.length() > 1) {
+                answer.append(',');
+            }
+            String correlationId = event.path("attributes").path("id_correlacao").asText();
+            answer.append(results.getOrDefault(correlationId, "{\"status\": 200}"));
+        }
+        return answer.append(']').toString();
+    }
+
+    /**
+     * Executes each event on its own consumer thread, as the broker listeners do, so they wait on the same batch.
+     */
+    private List<Future<?>> execute(List<Map<String, Object>> events) {
+        List<Future<?>> outcomes = new ArrayList<>();
+        for (Map<String, Object> event : events) {
+            outcomes.add(consumers.submit(() -> {
+                client.executeEvent(SOURCE, TEMPLATE, event);
+                return null;
+            }));
+        }
+        return outcomes;
+    }
+
+    private static Map<String, Object> event(String correlationId, String text) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("correlationId", correlationId);
+        event.put("text", text);
+        event.put("msisdn", "11999998888");
+        event.put("shortNumber", "40001");
+        event.put("date", "2016-10-18 10:15:42");
+        return event;
+    }
+
+    private static String text(List<Map<String, Object>> events, String correlationId) {
+        for (Map<String, Object> event : events) {
+            if (correlationId.equals(event.get("correlationId"))) {
+                return (String) event.get("text");
+            }
+        }
+        throw new AssertionError("Unexpected event in the batch: " + correlationId);
+    }
+
+    private static void assertRetried(Future<?> outcome) throws Exception {
+        try {
+            outcome.get(10, TimeUnit.SECONDS);
+            fail("Event should be retried");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BrokerRetryException);
+        }
+    }
+}
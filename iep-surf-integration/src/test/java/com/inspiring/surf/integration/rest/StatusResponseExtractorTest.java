@@ -0,0 +1,128 @@
+package com.inspiring.surf.integration.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs requests through a pool of a single connection against a stand-in server answering with a large body
+ * the extractor never reads. A connection not given back would fail the next lease on the request timeout,
+ * and the server sees one remote address only if the connection was kept alive and reused.
+ */
+public class StatusResponseExtractorTest {
+
+    private static final int BODY_SIZE = 256 * 1024;
+    private static final int REQUESTS = 20;
+
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private volatile int status = 200;
+
+    private HttpServer server;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private HttpComponentsClientHttpRequestFactory requestFactory;
+    private RestTemplate restTemplate;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] body = new byte[BODY_SIZE];
+        Arrays.fill(body, (byte) 'x');
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/rs/event", exchange -> {
+            connections.add(exchange.getRemoteAddress());
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() >= 0) {
+                    // the request body is not used
+                }
+            }
+            exchange.getResponseHeaders().set("X-SMKT-ErrorCode", "E" + status);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/rs/event";
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(1);
+        connectionManager.setDefaultMaxPerRoute(1);
+        CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+        requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setConnectionRequestTimeout(1000);
+        requestFactory.setReadTimeout(5000);
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        requestFactory.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void givesTheConnectionBackWithoutReadingTheBody() {
+        StatusResponseExtractor extractor = new StatusResponseExtractor("X-SMKT-ErrorCode");
+        for (int i = 0; i < REQUESTS; i++) {
+            ResponseEntity<Void> response = restTemplate.execute(url, HttpMethod.POST, null, extractor);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals("E200", response.getHeaders().getFirst("X-SMKT-ErrorCode"));
+            assertFalse(response.hasBody());
+            assertEquals(0, connectionManager.getTotalStats().getLeased());
+        }
+
+        assertEquals(1, connectionManager.getTotalStats().getAvailable());
+        assertEquals(1, connections.size());
+    }
+
+    @Test
+    public void keepsOnlyTheGivenHeaders() {
+        ResponseEntity<Void> response = restTemplate.execute(url, HttpMethod.POST, null, new StatusResponseExtractor("X-Other"));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getHeaders().getFirst("X-SMKT-ErrorCode"));
+        assertEquals(0, connectionManager.getTotalStats().getLeased());
+    }
+
+    @Test
+    public void givesTheConnectionBackOnClientErrors() {
+        status = 422;
+        StatusResponseExtractor extractor = new StatusResponseExtractor("X-SMKT-ErrorCode");
+        for (int i = 0; i < REQUESTS; i++) {
+            try {
+                restTemplate.execute(url, HttpMethod.POST, null, extractor);
+                fail("Client error expected");
+            } catch (HttpClientErrorException e) {
+                assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, e.getStatusCode());
+                assertEquals("E422", e.getResponseHeaders().getFirst("X-SMKT-ErrorCode"));
+            }
+            assertEquals(0, connectionManager.getTotalStats().getLeased());
+        }
+
+        assertEquals(1, connections.size());
+    }
+}
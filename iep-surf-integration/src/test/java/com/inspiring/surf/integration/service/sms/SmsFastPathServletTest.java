@@ -0,0 +1,117 @@
+package com.inspiring.surf.integration.service.sms;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.inspiring.surf.integration.broker.BrokerMessageConfig;
+import com.inspiring.surf.integration.util.AuditWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.EmbeddedServletContainerAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Posts the SMS callbacks through the embedded server with the MVC filters of the application in front of the
+ * fast path servlet, so a filter reading the form parameters before the servlet would lose the fields.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = SmsFastPathServletTest.Config.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "custom.server.fast.path.enabled=true")
+public class SmsFastPathServletTest {
+
+    @Configuration
+    @Import(SmsFastPathConfig.class)
+    @ImportAutoConfiguration({EmbeddedServletContainerAutoConfiguration.class, DispatcherServletAutoConfiguration.class,
+            HttpMessageConvertersAutoConfiguration.class, WebMvcAutoConfiguration.class})
+    static class Config {
+    }
+
+    private @MockBean BrokerMessageConfig broker;
+    private @MockBean AuditWriter audit;
+    private @MockBean SmsAdmissionController admission;
+    private @Autowired TestRestTemplate restTemplate;
+
+    @Before
+    public void setUp() {
+        when(broker.sendMessageAsync(anyString(), anyMapOf(String.class, Object.class))).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    public void publishesTheResponseFields() {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("celular", "5511999998888");
+        form.add("mensagem", "Adesão confirmada");
+        form.add("lashortnumber", "40001");
+        form.add("seunum", "corr-1");
+        form.add("datastatus", "2016-10-18 10:15:42");
+
+        ResponseEntity<String> response = post("/v1/sms/response", form);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("OK", response.getBody());
+        Map<String, Object> message = published(SmsInputServiceRest.queueNameResponse);
+        assertEquals("11999998888", message.get("msisdn"));
+        assertEquals("Adesão confirmada", message.get("text"));
+        assertEquals("40001", message.get("shortNumber"));
+        assertEquals("corr-1", message.get("correlationId"));
+        assertEquals("2016-10-18 10:15:42", message.get("date"));
+    }
+
+    @Test
+    public void publishesTheStatusFields() {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("celular", "5511999998888");
+        form.add("descricaostatus", "Entregue");
+        form.add("status", "2");
+        form.add("SeuNum", "corr-2");
+        form.add("datastatus", "2016-10-18 10:15:43");
+
+        ResponseEntity<String> response = post("/v1/sms/status", form);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        Map<String, Object> message = published(SmsInputServiceRest.queueNameStatus);
+        assertEquals("11999998888", message.get("msisdn"));
+        assertEquals("Entregue", message.get("text"));
+        assertEquals("2", message.get("status"));
+        assertEquals("corr-2", message.get("correlationId"));
+    }
+
+    private ResponseEntity<String> post(String path, MultiValueMap<String, String> form) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        return restTemplate.postForEntity(path, new HttpEntity<>(form, headers), String.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> published(String queue) {
+        ArgumentCaptor<Map> message = ArgumentCaptor.forClass(Map.class);
+        verify(broker).sendMessageAsync(eq(queue), message.capture());
+        return message.getValue();
+    }
+}
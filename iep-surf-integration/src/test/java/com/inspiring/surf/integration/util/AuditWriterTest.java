@@ -0,0 +1,171 @@
+package com.inspiring.surf.integration.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes from several threads through a small ring, so it wraps and fills, and counts every line as drained by
+ * the writer, written on the calling thread or dropped, also when the writer is destroyed while the callers are
+ * still writing. A caller held between claiming its slot and filling it shows the line is not lost on shutdown.
+ */
+public class AuditWriterTest {
+
+    private static final int THREADS = 4;
+    private static final int LINES = 5000;
+
+    private AuditWriter writer;
+
+    @Before
+    public void setUp() {
+        writer = new AuditWriter();
+        ReflectionTestUtils.setField(writer, "bufferSize", 64);
+        ReflectionTestUtils.setField(writer, "batchSize", 16);
+        ReflectionTestUtils.setField(writer, "fullPolicy", "sync");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        writer.destroy();
+    }
+
+    @Test
+    public void writesEveryLine() throws InterruptedException {
+        writer.init();
+        join(startWriters(new CountDownLatch(THREADS)));
+        writer.destroy();
+
+        assertEquals(THREADS * LINES, count("written") + count("synced"));
+        assertEquals(0, count("dropped"));
+    }
+
+    @Test
+    public void writesTheLinesClaimedDuringShutdown() throws InterruptedException {
+        writer.init();
+        CountDownLatch started = new CountDownLatch(THREADS);
+        Thread[] writers = startWriters(started);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        writer.destroy();
+        join(writers);
+
+        assertEquals(THREADS * LINES, count("written") + count("synced"));
+        assertEquals(count("written"), ((AtomicLong) ReflectionTestUtils.getField(writer, "tail")).get());
+    }
+
+    @Test
+    public void countsTheDroppedLines() throws InterruptedException {
+        ReflectionTestUtils.setField(writer, "fullPolicy", "drop");
+        writer.init();
+        join(startWriters(new CountDownLatch(THREADS)));
+        writer.destroy();
+
+        assertEquals(THREADS * LINES, count("written") + count("dropped"));
+        assertEquals(0, count("synced"));
+    }
+
+    @Test
+    public void writesALineFilledWhileShuttingDown() throws Exception {
+        writer.init();
+        CountDownLatch filling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread caller = startHeldWriter(filling, release);
+        assertTrue(filling.await(10, TimeUnit.SECONDS));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> destroyed = executor.submit(() -> {
+                writer.destroy();
+                return null;
+            });
+            Thread.sleep(100);
+            release.countDown();
+            destroyed.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        join(new Thread[]{caller});
+
+        assertEquals(1, count("written"));
+    }
+
+    @Test
+    public void writesALineFilledAfterShutdown() throws Exception {
+        writer.init();
+        CountDownLatch filling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread caller = startHeldWriter(filling, release);
+        assertTrue(filling.await(10, TimeUnit.SECONDS));
+
+        writer.destroy();
+        assertEquals(0, count("written"));
+        release.countDown();
+        join(new Thread[]{caller});
+
+        assertEquals(1, count("written"));
+    }
+
+    /**
+     * Starts a caller that claims a ring slot and is held while its line is formatted, until released.
+     */
+    private Thread startHeldWriter(CountDownLatch filling, CountDownLatch release) {
+        Map<String, Object> fields = new HashMap<String, Object>() {
+            @Override
+            public Set<Map.Entry<String, Object>> entrySet() {
+                filling.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.entrySet();
+            }
+        };
+        fields.put("correlationId", "held");
+        Thread caller = new Thread(() -> writer.request("held", fields), "audit-test-held");
+        caller.start();
+        return caller;
+    }
+
+    private Thread[] startWriters(CountDownLatch started) {
+        Thread[] writers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            String type = "type-" + t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < LINES; i++) {
+                    writer.request(type, Collections.singletonMap("correlationId", "id-" + i));
+                    if (i == LINES / 10) {
+                        started.countDown();
+                    }
+                }
+            }, "audit-test-" + t);
+            writers[t].start();
+        }
+        return writers;
+    }
+
+    private static void join(Thread[] writers) throws InterruptedException {
+        for (Thread thread : writers) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            assertTrue(!thread.isAlive());
+        }
+    }
+
+    private long count(String counter) {
+        return ((AtomicLong) ReflectionTestUtils.getField(writer, counter)).get();
+    }
+}
@@ -0,0 +1,96 @@
+package com.inspiring.surf.integration.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures the CPU cost against the bytes saved of each compression level, for a single SMS response event and
+ * for a batch of events, as sent to the Iep Server. Run the main method from the test classpath, it prints one
+ * line per encoding and level: time per body, compressed size and ratio. The template file can be given as the
+ * first argument, it defaults to the SMS response template of the module.
+ */
+public class BodyCompressorBenchmark {
+
+    private static final int WARMUP_MILLIS = 2000;
+    private static final int MEASURE_MILLIS = 3000;
+    private static final int[] LEVELS = {1, 3, 6, 9};
+    private static final int[] BATCH_SIZES = {1, 100};
+
+    public static void main(String[] args) throws IOException {
+        String templateFile = args.length > 0 ? args[0] : "src/main/resources/templates/event.sms.response.json";
+        EventTemplate template = EventTemplate.compile(new String(Files.readAllBytes(Paths.get(templateFile)), UTF_8));
+        for (int batchSize : BATCH_SIZES) {
+            byte[] body = render(template, batchSize);
+            System.out.printf("Body: %d event(s), %d bytes%n", batchSize, body.length);
+            System.out.printf("  %-8s %5s %12s %10s %8s%n", "encoding", "level", "us/body", "bytes", "ratio");
+            for (String encoding : new String[]{BodyCompressor.GZIP, BodyCompressor.DEFLATE}) {
+                for (int level : LEVELS) {
+                    measure(encoding, level, body, WARMUP_MILLIS);
+                    Result result = measure(encoding, level, body, MEASURE_MILLIS);
+                    System.out.printf("  %-8s %5d %12.2f %10d %8.2f%n", encoding, level, result.nanos / 1000.0, result.bytes,
+                            (double) body.length / result.bytes);
+                }
+            }
+        }
+    }
+
+    private static Result measure(String encoding, int level, byte[] body, long millis) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 64);
+        long iterations = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000L;
+        long now;
+        do {
+            out.reset();
+            BodyCompressor.compress(encoding, level, body, body.length, out);
+            iterations++;
+        } while ((now = System.nanoTime()) < end);
+        return new Result((now - start) / iterations, out.size());
+    }
+
+    private static byte[] render(EventTemplate template, int batchSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (batchSize > 1) {
+            out.write('[');
+        }
+        for (int i = 0; i < batchSize; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            template.writeTo(variables(i), out, true);
+        }
+        if (batchSize > 1) {
+            out.write(']');
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, Object> variables(int index) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("text", "PROMO " + random.nextInt(1000) + " confirma adesao ao pacote de dados");
+        variables.put("shortNumber", String.valueOf(40000 + random.nextInt(1000)));
+        variables.put("correlationId", Long.toHexString(random.nextLong()) + "-" + index);
+        variables.put("date", "2016-10-" + (10 + random.nextInt(18)) + "T" + (10 + random.nextInt(13)) + ":15:42.123-03:00");
+        variables.put("msisdn", "55" + (11 + random.nextInt(88)) + (900000000 + random.nextInt(99999999)));
+        return variables;
+    }
+
+    private static class Result {
+
+        private final long nanos;
+        private final int bytes;
+
+        private Result(long nanos, int bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.inspiring.surf.integration.util;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Encodes and decodes message maps, checking the byte layout where it is part of the format: a dictionary key
+ * is the single byte of its index, so its position in the dictionary must never change.
+ */
+public class CompactMapCodecTest {
+
+    @Test
+    public void roundTripsTheDictionaryKeys() {
+        Map<String, Object> message = new HashMap<>();
+        message.put("msisdn", "11999998888");
+        message.put("text", "Adesao confirmada");
+        message.put("shortNumber", "40001");
+        message.put("correlationId", "corr-1");
+        message.put("date", "2016-10-18 10:15:42");
+        message.put("status", "2");
+        message.put("x-msg-retry-count", 3);
+
+        assertEquals(message, roundTrip(message));
+    }
+
+    @Test
+    public void writesADictionaryKeyAsItsIndex() {
+        byte[] encoded = CompactMapCodec.encode(Collections.<String, Object>singletonMap("msisdn", "1"));
+
+        assertArrayEquals(new byte[]{CompactMapCodec.VERSION, 1, 1, 1, 1, '1'}, encoded);
+    }
+
+    @Test
+    public void writesAnUnknownKeyInline() {
+        byte[] encoded = CompactMapCodec.encode(Collections.<String, Object>singletonMap("ab", true));
+
+        assertArrayEquals(new byte[]{CompactMapCodec.VERSION, 1, 0, 2, 'a', 'b', 4}, encoded);
+    }
+
+    @Test
+    public void roundTripsUnknownKeysAndEveryValueType() {
+        Map<String, Object> message = new HashMap<>();
+        message.put("campaign", "promo-10");
+        message.put("priority", 7);
+        message.put("minInt", Integer.MIN_VALUE);
+        message.put("maxInt", Integer.MAX_VALUE);
+        message.put("negative", -1);
+        message.put("expires", 1L << 40);
+        message.put("minLong", Long.MIN_VALUE);
+        message.put("maxLong", Long.MAX_VALUE);
+        message.put("urgent", true);
+        message.put("silent", false);
+        message.put("", "empty key");
+        message.put("empty", "");
+
+        Map<String, Object> decoded = roundTrip(message);
+
+        assertEquals(message, decoded);
+        assertEquals(Integer.class, decoded.get("priority").getClass());
+        assertEquals(Long.class, decoded.get("expires").getClass());
+    }
+
+    @Test
+    public void roundTripsNulls() {
+        Map<String, Object> message = new HashMap<>();
+        message.put("text", null);
+        message.put("campaign", null);
+        message.put("msisdn", "11999998888");
+
+        Map<String, Object> decoded = roundTrip(message);
+
+        assertEquals(message, decoded);
+        assertTrue(decoded.containsKey("text"));
+        assertTrue(decoded.containsKey("campaign"));
+    }
+
+    @Test
+    public void roundTripsNonAsciiText() {
+        Map<String, Object> message = new HashMap<>();
+        message.put("text", "Adesão confirmada: R$ 9,90 € 你好 😀 \u0000\u007f\u0080߿ࠀ￿");
+        message.put("descrição", "ação");
+
+        assertEquals(message, roundTrip(message));
+    }
+
+    @Test
+    public void writesTheSameBytesAsTheJdkEncoder() {
+        String text = "Adesão € 😀";
+        byte[] encoded = CompactMapCodec.encode(Collections.<String, Object>singletonMap("text", text));
+        byte[] utf8 = text.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+        assertEquals(5 + utf8.length, encoded.length);
+        assertEquals(utf8.length, encoded[4]);
+        for (int i = 0; i < utf8.length; i++) {
+            assertEquals(utf8[i], encoded[5 + i]);
+        }
+    }
+
+    @Test
+    public void replacesALoneSurrogate() {
+        Map<String, Object> message = new HashMap<>();
+        message.put("text", "a\uD83Db\uDE00");
+
+        assertEquals("a?b?", roundTrip(message).get("text"));
+    }
+
+    @Test
+    public void roundTripsAnEmptyMap() {
+        assertEquals(Collections.emptyMap(), roundTrip(new HashMap<>()));
+    }
+
+    @Test
+    public void roundTripsALongText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("ção-").append(i);
+        }
+        Map<String, Object> message = Collections.<String, Object>singletonMap("text", text.toString());
+
+        assertEquals(message, roundTrip(message));
+    }
+
+    @Test
+    public void supportsOnlyStringKeysAndSimpleValues() {
+        assertTrue(CompactMapCodec.isSupported(Collections.singletonMap("text", null)));
+        assertFalse(CompactMapCodec.isSupported(Collections.singletonMap("date", new Date())));
+        assertFalse(CompactMapCodec.isSupported(Collections.singletonMap(1, "one")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnotherVersion() {
+        CompactMapCodec.decode(new byte[]{CompactMapCodec.VERSION + 1, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownKeyIndex() {
+        CompactMapCodec.decode(new byte[]{CompactMapCodec.VERSION, 1, 100, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownValueType() {
+        CompactMapCodec.decode(new byte[]{CompactMapCodec.VERSION, 1, 1, 9});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsATruncatedString() {
+        byte[] encoded = CompactMapCodec.encode(Collections.<String, Object>singletonMap("text", "truncated"));
+        byte[] truncated = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        CompactMapCodec.decode(truncated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMissingEntry() {
+        CompactMapCodec.decode(new byte[]{CompactMapCodec.VERSION, 2, 1, 0});
+    }
+
+    private static Map<String, Object> roundTrip(Map<String, Object> message) {
+        return CompactMapCodec.decode(CompactMapCodec.encode(message));
+    }
+}
@@ -0,0 +1,185 @@
+package com.inspiring.surf.integration.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Renders templates against {@link StrSubstitutor}, which the compiled templates replaced, and writes values
+ * with JSON escaping, parsing the result back. The byte buffer of the writer is 4096 bytes: the long values are
+ * shifted over that boundary one byte at a time, so every multi-byte sequence and escape is split by a flush once.
+ */
+public class EventTemplateTest {
+
+    private static final int BYTE_BUFFER = 4096;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void rendersAsStrSubstitutor() throws IOException {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", "A");
+        variables.put("b", 42);
+        variables.put("empty", "");
+        variables.put("", "unnamed");
+        List<String> templates = Arrays.asList(
+                "",
+                "no variables",
+                "${a}",
+                "x${a}y${b}z",
+                "${a}${b}${a}",
+                "${missing}",
+                "before ${missing} after",
+                "${empty}|${empty:-default}",
+                "${a:-default}",
+                "${missing:-default}",
+                "${missing:-}",
+                "${missing:-two:-delimiters}",
+                "${a:-two:-delimiters}",
+                "${}",
+                "$${a}",
+                "$$${a}",
+                "$${a}${a}$${b}",
+                "cost: $ ${b}",
+                "$",
+                "${",
+                "${a",
+                "unterminated ${a and ${b}",
+                "${a}}",
+                "{\"text\": \"${a}\", \"date\": \"${missing:-2016-10-18}\"}");
+
+        for (String template : templates) {
+            String expected = new StrSubstitutor(variables).replace(template);
+            EventTemplate compiled = EventTemplate.compile(template);
+
+            assertEquals(template, expected, compiled.render(variables));
+            assertEquals(template, expected, new String(write(compiled, variables, false), UTF_8));
+        }
+    }
+
+    @Test
+    public void doesNotSubstituteValuesAgain() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("a", "${b}");
+        variables.put("b", "B");
+
+        assertEquals("${b}/B", EventTemplate.compile("${a}/${b}").render(variables));
+    }
+
+    @Test
+    public void escapesQuotesAndBackslashes() throws IOException {
+        assertEscaped("say \"hi\" \\o/ \\\"", "say \\\"hi\\\" \\\\o/ \\\\\\\"");
+    }
+
+    @Test
+    public void escapesControlCharacters() throws IOException {
+        assertEscaped("\n\r\t\b\f", "\\n\\r\\t\\b\\f");
+        assertEscaped("\u0000\u0001\u000b\u001f\u0020", "\\u0000\\u0001\\u000b\\u001f ");
+    }
+
+    @Test
+    public void escapesTheLineAndParagraphSeparators() throws IOException {
+        assertEscaped("a\u2028b\u2029c", "a\\u2028b\\u2029c");
+    }
+
+    @Test
+    public void writesSurrogatePairsAsFourBytes() throws IOException {
+        String value = "😀 \uD83D\uDE00";
+
+        assertArrayEquals(value.getBytes(UTF_8), write(EventTemplate.compile("${text}"), variables(value), true));
+        assertEquals(4, new String(write(EventTemplate.compile("${text}"), variables("😀"), true), UTF_8).getBytes(UTF_8).length);
+    }
+
+    @Test
+    public void replacesLoneSurrogates() throws IOException {
+        assertEscaped("\uD83D", "?");
+        assertEscaped("\uDE00", "?");
+        assertEscaped("a\uD83Db", "a?b");
+        assertEscaped("\uDE00\uD83D", "??");
+        assertEscaped("\uD83D\uD83D\uDE00", "?😀");
+    }
+
+    @Test
+    public void writesValuesWithoutEscaping() throws IOException {
+        String value = "\"quoted\" \\ \n ção 😀";
+
+        assertArrayEquals(value.getBytes(UTF_8), write(EventTemplate.compile("${text}"), variables(value), false));
+    }
+
+    @Test
+    public void writesAcrossTheBufferFlush() throws IOException {
+        String value = repeat("\"\\\u0001\u2028ção😀€x", 700);
+        EventTemplate template = EventTemplate.compile("{\"padding\": \"${padding}\", \"text\": \"${text}\", \"tail\": \"${tail:-end}\"}");
+
+        for (int padding = 0; padding < 16; padding++) {
+            Map<String, Object> variables = variables(value);
+            variables.put("padding", repeat("p", BYTE_BUFFER - 64 + padding));
+
+            byte[] body = write(template, variables, true);
+
+            assertEquals(value, objectMapper.readTree(body).path("text").asText());
+            assertEquals("end", objectMapper.readTree(body).path("tail").asText());
+        }
+    }
+
+    @Test
+    public void writesMultiByteTextAcrossTheBufferFlush() throws IOException {
+        String value = repeat("ção😀€", 2000);
+        EventTemplate template = EventTemplate.compile("${padding}${text}");
+
+        for (int padding = 0; padding < 8; padding++) {
+            Map<String, Object> variables = variables(value);
+            variables.put("padding", repeat("p", padding));
+
+            assertArrayEquals((repeat("p", padding) + value).getBytes(UTF_8), write(template, variables, true));
+        }
+    }
+
+    @Test
+    public void writesLiteralsLongerThanTheBuffer() throws IOException {
+        String literal = repeat("literal ção ", BYTE_BUFFER / 4);
+        EventTemplate template = EventTemplate.compile(literal + "${text}" + literal);
+
+        assertArrayEquals((literal + "v" + literal).getBytes(UTF_8), write(template, variables("v"), true));
+    }
+
+    private void assertEscaped(String value, String escaped) throws IOException {
+        EventTemplate template = EventTemplate.compile("{\"text\": \"${text}\"}");
+        byte[] body = write(template, variables(value), true);
+
+        assertEquals("{\"text\": \"" + escaped + "\"}", new String(body, UTF_8));
+        if (value.chars().noneMatch(c -> Character.isSurrogate((char) c))) {
+            assertEquals(value, objectMapper.readTree(body).path("text").asText());
+        }
+    }
+
+    private static byte[] write(EventTemplate template, Map<String, Object> variables, boolean jsonEscape) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.writeTo(variables, out, jsonEscape);
+        return out.toByteArray();
+    }
+
+    private static Map<String, Object> variables(String text) {
+        return new HashMap<>(Collections.<String, Object>singletonMap("text", text));
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder repeated = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            repeated.append(value);
+        }
+        return repeated.toString();
+    }
+}